@@ -0,0 +1,198 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.IIOException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps concurrent region reads within a memory budget, see {@link OzfImageReader#setAdmissionController}.
+ * <p>
+ * Before a read allocates its image, its peak memory is estimated from the region and taken from the budget; it is
+ * given back when the read returns. A read that does not fit waits until other reads give back enough, at most for the
+ * timeout, and is rejected with an {@link IIOException} then. A read larger than the whole budget is rejected at once.
+ * <p>
+ * One controller is meant to be shared by all readers of the application. It is thread-safe.
+ */
+public final class OzfAdmissionController {
+    private final long maxBytes;
+    private final int bytesPerPixel;
+    private final long timeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private long usedBytes = 0;
+    private int waiting = 0;
+
+    /**
+     * @param maxBytes      the budget, in bytes
+     * @param bytesPerPixel memory a read takes per pixel of the region: 1 for the palette indexes, plus whatever the
+     *                      caller allocates for the result, for example 4 more if it converts images to ARGB
+     * @param timeout       how long a read may wait for the budget, 0 to reject at once
+     * @param unit          unit of the timeout
+     */
+    public OzfAdmissionController(long maxBytes, int bytesPerPixel, long timeout, TimeUnit unit) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive!");
+        }
+
+        if (bytesPerPixel < 1) {
+            throw new IllegalArgumentException("bytesPerPixel must be positive!");
+        }
+
+        if (timeout < 0) {
+            throw new IllegalArgumentException("bad timeout!");
+        }
+
+        this.maxBytes = maxBytes;
+        this.bytesPerPixel = bytesPerPixel;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @param width         width of the region
+     * @param height        height of the region
+     * @param tilesInFlight number of tiles decoded at once
+     * @return peak memory of the read, in bytes: the pixels plus a compressed and an inflated buffer per tile in flight
+     */
+    public long estimate(int width, int height, int tilesInFlight) {
+        return (long) width * height * bytesPerPixel + 2L * tilesInFlight * OzfTileCodec.TILE_SIZE;
+    }
+
+    /**
+     * Takes the bytes from the budget, waiting for them if needed. Every successful call must be followed by
+     * {@link #release(long)} of the same bytes.
+     *
+     * @param bytes   memory the read is going to take
+     * @param metrics receiver of waits and rejections
+     * @throws IIOException         if the bytes are not available within the timeout
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(long bytes, OzfMetrics metrics) throws IOException {
+        if (bytes > maxBytes) {
+            reject(bytes, metrics);
+        }
+
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException();
+        }
+
+        try {
+            long start = System.nanoTime();
+            boolean waited = false;
+            long remaining = timeoutNanos;
+
+            while (usedBytes + bytes > maxBytes) {
+                if (remaining <= 0) {
+                    reject(bytes, metrics);
+                }
+
+                waited = true;
+                waiting++;
+
+                try {
+                    remaining = released.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    throw new InterruptedIOException();
+                } finally {
+                    waiting--;
+                }
+            }
+
+            usedBytes += bytes;
+
+            admitted.increment();
+
+            if (waited) {
+                waits.increment();
+                metrics.admissionWaited(System.nanoTime() - start);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives the bytes taken by {@link #acquire(long, OzfMetrics)} back to the budget.
+     */
+    public void release(long bytes) {
+        lock.lock();
+
+        try {
+            usedBytes -= bytes;
+
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return memory taken by reads in progress, in bytes
+     */
+    public long getUsedBytes() {
+        lock.lock();
+
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of reads waiting for the budget right now
+     */
+    public int getWaiting() {
+        lock.lock();
+
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of reads let in
+     */
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return number of reads let in after waiting for the budget
+     */
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    /**
+     * @return number of reads rejected
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    private void reject(long bytes, OzfMetrics metrics) throws IIOException {
+        rejections.increment();
+        metrics.admissionRejected(bytes);
+
+        throw new IIOException("the read needs " + bytes + " bytes, but the memory budget is exhausted!");
+    }
+}
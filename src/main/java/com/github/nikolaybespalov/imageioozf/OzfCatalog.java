@@ -0,0 +1,307 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serves many ozf files through a limited number of open readers.
+ * <p>
+ * Readers are opened on first use and closed when the catalog runs out of open files or header memory, the least
+ * recently used ones first; a closed reader is opened again on the next request. Every map has its own lock, so
+ * requests for different maps never wait for each other, only opening a reader may have to wait for an eviction.
+ * Decoded tiles of all maps share one {@link OzfTileCache}. Tiles are cached per registration of a map, so a map
+ * registered again under the same identifier never gets tiles of the previous file.
+ * <p>
+ * The catalog is thread-safe.
+ */
+public final class OzfCatalog implements Closeable {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxOpenReaders;
+    private final long maxHeaderMemory;
+    private final OzfTileCache tileCache;
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private final AtomicLong headerMemory = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Does something with the reader of a map, see {@link #withReader(String, ReaderCallback)}.
+     */
+    @FunctionalInterface
+    public interface ReaderCallback<T> {
+        T apply(OzfImageReader reader) throws IOException;
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final File file;
+        private final ReentrantLock lock = new ReentrantLock();
+        private ImageInputStream stream;
+        private OzfImageReader reader;
+        private long headerMemory;
+        private boolean removed;
+        private volatile long lastUsed;
+
+        Entry(String id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        boolean isOpen() {
+            return reader != null;
+        }
+
+        @Override
+        public String toString() {
+            return id + " (" + file.getPath() + ")";
+        }
+    }
+
+    /**
+     * @param maxOpenReaders  maximum number of readers (and open files) at a time
+     * @param maxHeaderMemory maximum memory taken by headers of open readers, in bytes
+     * @param tileCache       cache of decoded tiles shared by all maps, may be null
+     */
+    public OzfCatalog(int maxOpenReaders, long maxHeaderMemory, OzfTileCache tileCache) {
+        if (maxOpenReaders < 1) {
+            throw new IllegalArgumentException("maxOpenReaders must be positive!");
+        }
+
+        this.maxOpenReaders = maxOpenReaders;
+        this.maxHeaderMemory = maxHeaderMemory;
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Adds the map to the catalog, the file is not opened until the map is used.
+     *
+     * @param id   identifier of the map
+     * @param file ozf file
+     */
+    public void register(String id, File file) {
+        if (entries.putIfAbsent(id, new Entry(id, file)) != null) {
+            throw new IllegalArgumentException("map " + id + " is already registered!");
+        }
+    }
+
+    /**
+     * Removes the map from the catalog, closes its reader and removes its tiles from the cache.
+     *
+     * @param id identifier of the map
+     * @throws IOException if an error occurs during closing the file
+     */
+    public void unregister(String id) throws IOException {
+        Entry entry = entries.remove(id);
+
+        if (entry != null) {
+            entry.lock.lock();
+
+            try {
+                entry.removed = true;
+
+                if (tileCache != null) {
+                    tileCache.invalidate(entry);
+                }
+
+                closeReader(entry);
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    public boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    /**
+     * @see OzfImageReader#readTile(int, int, int)
+     */
+    public BufferedImage readTile(String id, int level, int x, int y) throws IOException {
+        return withReader(id, reader -> reader.readTile(level, x, y));
+    }
+
+    /**
+     * @see OzfImageReader#read(int, ImageReadParam)
+     */
+    public BufferedImage read(String id, int level, ImageReadParam param) throws IOException {
+        return withReader(id, reader -> reader.read(level, param));
+    }
+
+    /**
+     * Runs the callback with the reader of the map, opening it if needed. The reader is used exclusively by the
+     * callback and must not be kept after it returns.
+     *
+     * @param id       identifier of the map
+     * @param callback what to do with the reader
+     * @return result of the callback
+     * @throws IOException if an error occurs during opening the map or thrown by the callback
+     */
+    public <T> T withReader(String id, ReaderCallback<T> callback) throws IOException {
+        Entry entry = entries.get(id);
+
+        if (entry == null) {
+            throw new IllegalArgumentException("unknown map " + id + "!");
+        }
+
+        boolean opened = false;
+
+        entry.lock.lock();
+
+        try {
+            if (entry.removed) {
+                throw new IllegalArgumentException("unknown map " + id + "!");
+            }
+
+            entry.lastUsed = System.nanoTime();
+
+            if (!entry.isOpen()) {
+                openReader(entry);
+
+                opened = true;
+            }
+
+            return callback.apply(entry.reader);
+        } finally {
+            entry.lock.unlock();
+
+            if (opened) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * @return number of open readers
+     */
+    public int getOpenReaders() {
+        return openReaders.get();
+    }
+
+    /**
+     * @return memory taken by headers of open readers, in bytes
+     */
+    public long getHeaderMemory() {
+        return headerMemory.get();
+    }
+
+    public OzfTileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * Closes all readers, maps stay registered and are opened again on use.
+     *
+     * @throws IOException if an error occurs during closing a file
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+
+        for (Entry entry : entries.values()) {
+            entry.lock.lock();
+
+            try {
+                closeReader(entry);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void openReader(Entry entry) throws IOException {
+        ImageInputStream stream = new FileImageInputStream(entry.file);
+
+        try {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(stream);
+            reader.setSourceName(entry.toString());
+
+            if (tileCache != null) {
+                reader.setTileCache(tileCache, entry);
+            }
+
+            entry.headerMemory = reader.getHeaderMemory();
+            entry.stream = stream;
+            entry.reader = reader;
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+
+            throw e;
+        }
+
+        openReaders.incrementAndGet();
+        headerMemory.addAndGet(entry.headerMemory);
+    }
+
+    private void closeReader(Entry entry) throws IOException {
+        if (!entry.isOpen()) {
+            return;
+        }
+
+        entry.reader.dispose();
+        entry.reader = null;
+
+        openReaders.decrementAndGet();
+        headerMemory.addAndGet(-entry.headerMemory);
+
+        try {
+            entry.stream.close();
+        } finally {
+            entry.stream = null;
+        }
+    }
+
+    /**
+     * Closes the least recently used readers until the limits are met. Maps that are in use are skipped.
+     */
+    private void evict() throws IOException {
+        evictionLock.lock();
+
+        try {
+            while (openReaders.get() > maxOpenReaders || headerMemory.get() > maxHeaderMemory) {
+                Entry victim = null;
+
+                for (Entry entry : entries.values()) {
+                    if (entry.isOpen() && (victim == null || entry.lastUsed < victim.lastUsed)) {
+                        if (entry.lock.tryLock()) {
+                            if (victim != null) {
+                                victim.lock.unlock();
+                            }
+
+                            victim = entry;
+                        }
+                    }
+                }
+
+                if (victim == null) {
+                    // everything is in use, the limits are exceeded for a while
+                    return;
+                }
+
+                try {
+                    closeReader(victim);
+                } finally {
+                    victim.lock.unlock();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lightweight {@link OzfMetrics} that sums everything up in memory.
+ * <p>
+ * Times are kept in histograms with power of two buckets, so percentiles are accurate within a factor of two. Good
+ * enough to see where the time goes, and cheap enough to stay on in production.
+ */
+public final class OzfCounters implements OzfMetrics {
+    private final Histogram header = new Histogram();
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder inflatedBytes = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheCoalesced = new LongAdder();
+    private final LongAdder regions = new LongAdder();
+    private final LongAdder regionPixels = new LongAdder();
+    private final LongAdder regionTiles = new LongAdder();
+    private final Histogram admissionWaits = new Histogram();
+    private final LongAdder admissionRejections = new LongAdder();
+
+    /**
+     * Counts of values by the position of their highest bit.
+     */
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+
+            buckets[64 - Long.numberOfLeadingZeros(value) - (value == 0 ? 0 : 1)].increment();
+            count.increment();
+            sum.add(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public double getMean() {
+            long n = getCount();
+
+            return n == 0 ? 0 : (double) getSum() / n;
+        }
+
+        /**
+         * @param percentile percentile from 0 to 100
+         * @return upper bound of the bucket holding the percentile, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("bad percentile!");
+            }
+
+            long[] counts = new long[buckets.length];
+            long total = 0;
+
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+
+            for (int i = 0; i < counts.length; i++) {
+                rank -= counts[i];
+
+                if (rank <= 0) {
+                    return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+
+            count.reset();
+            sum.reset();
+        }
+    }
+
+    public OzfCounters() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void headerRead(long nanos) {
+        header.record(nanos);
+    }
+
+    @Override
+    public void tilePhase(Phase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void tileDecoded(int compressedBytes, int inflatedBytes) {
+        this.compressedBytes.add(compressedBytes);
+        this.inflatedBytes.add(inflatedBytes);
+    }
+
+    @Override
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void cacheCoalesced() {
+        cacheCoalesced.increment();
+    }
+
+    @Override
+    public void admissionWaited(long nanos) {
+        admissionWaits.record(nanos);
+    }
+
+    @Override
+    public void admissionRejected(long bytes) {
+        admissionRejections.increment();
+    }
+
+    @Override
+    public void regionRead(int width, int height, int tiles) {
+        regions.increment();
+        regionPixels.add((long) width * height);
+        regionTiles.add(tiles);
+    }
+
+    /**
+     * @return header read times in nanoseconds
+     */
+    public Histogram getHeader() {
+        return header;
+    }
+
+    /**
+     * @return per tile times of the phase in nanoseconds
+     */
+    public Histogram getPhase(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getInflatedBytes() {
+        return inflatedBytes.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return number of requests that waited for a load of the same tile by another thread
+     */
+    public long getCacheCoalesced() {
+        return cacheCoalesced.sum();
+    }
+
+    /**
+     * @return number of {@code read} calls
+     */
+    public long getRegions() {
+        return regions.sum();
+    }
+
+    /**
+     * @return total pixels of all regions read
+     */
+    public long getRegionPixels() {
+        return regionPixels.sum();
+    }
+
+    /**
+     * @return total tiles covered by all regions read
+     */
+    public long getRegionTiles() {
+        return regionTiles.sum();
+    }
+
+    /**
+     * @return times reads waited for the memory budget in nanoseconds
+     */
+    public Histogram getAdmissionWaits() {
+        return admissionWaits;
+    }
+
+    /**
+     * @return number of reads rejected by the memory budget
+     */
+    public long getAdmissionRejections() {
+        return admissionRejections.sum();
+    }
+
+    /**
+     * Sets everything to zero. Measurements made at the same time may be partly lost.
+     */
+    public void reset() {
+        header.reset();
+
+        for (Histogram phase : phases) {
+            phase.reset();
+        }
+
+        compressedBytes.reset();
+        inflatedBytes.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        cacheCoalesced.reset();
+        regions.reset();
+        regionPixels.reset();
+        regionTiles.reset();
+        admissionWaits.reset();
+        admissionRejections.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("header: ").append(header.getCount()).append(" x ").append((long) header.getMean()).append(" ns");
+
+        for (Phase phase : Phase.values()) {
+            Histogram histogram = getPhase(phase);
+
+            sb.append(", ").append(phase.name().toLowerCase(Locale.ROOT)).append(": ").append(histogram.getCount())
+                    .append(" x ").append((long) histogram.getMean()).append(" ns (p99 < ")
+                    .append(histogram.getPercentile(99)).append(" ns)");
+        }
+
+        sb.append(", compressed: ").append(getCompressedBytes()).append(" B");
+        sb.append(", inflated: ").append(getInflatedBytes()).append(" B");
+        sb.append(", cache: ").append(getCacheHits()).append('/').append(getCacheHits() + getCacheMisses() + getCacheCoalesced());
+        sb.append(", coalesced: ").append(getCacheCoalesced());
+        sb.append(", regions: ").append(getRegions()).append(" (").append(getRegionPixels()).append(" px)");
+        sb.append(", admission: ").append(admissionWaits.getCount()).append(" waits x ").append((long) admissionWaits.getMean()).append(" ns, ")
+                .append(getAdmissionRejections()).append(" rejections");
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.nikolaybespalov.imageioozf;
+
+/**
+ * A tile that can't be decoded, see {@link OzfImageReader#getDamagedTiles()} and
+ * {@link OzfImageReader#validate(java.util.concurrent.Executor)}.
+ */
+public final class OzfDamagedTile {
+    private final int imageIndex;
+    private final int x;
+    private final int y;
+    private final String reason;
+
+    OzfDamagedTile(int imageIndex, int x, int y, String reason) {
+        this.imageIndex = imageIndex;
+        this.x = x;
+        this.y = y;
+        this.reason = reason;
+    }
+
+    public int getImageIndex() {
+        return imageIndex;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return what is wrong with the tile
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "tile " + x + "," + y + " of image " + imageIndex + ": " + reason;
+    }
+}
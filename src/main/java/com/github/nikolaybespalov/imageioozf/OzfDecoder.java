@@ -1,5 +1,7 @@
 package com.github.nikolaybespalov.imageioozf;
 
+import java.nio.ByteBuffer;
+
 class OzfDecoder {
     private static final byte abyKey[] = {
             (byte) 0x2D, (byte) 0x4A, (byte) 0x43, (byte) 0xF1, (byte) 0x27, (byte) 0x9B, (byte) 0x69, (byte) 0x4F,
@@ -13,4 +15,16 @@ class OzfDecoder {
             bytes[i] = (byte) (((int) bytes[i] ^ (abyKey[i % abyKey.length] + key)) & 0xFF);
         }
     }
+
+    /**
+     * Decodes remaining bytes of the buffer in place. Unlike {@link #decode(byte[], int, int, byte)} the key index is
+     * counted from the buffer position, so it can be applied to a tile that lies anywhere inside a larger chunk.
+     */
+    static void decode(ByteBuffer buffer, byte key) {
+        int position = buffer.position();
+
+        for (int i = 0; i < buffer.remaining(); ++i) {
+            buffer.put(position + i, (byte) (((int) buffer.get(position + i) ^ (abyKey[i % abyKey.length] + key)) & 0xFF));
+        }
+    }
 }
@@ -0,0 +1,155 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link OzfJobSource} backed by a directory, a stand-in for a real coordinator on a single host.
+ * <p>
+ * Every shard is a {@code .shard} file holding {@link OzfShard#toString()}. It is submitted to {@code pending},
+ * claimed by an atomic move to {@code running} and moved to {@code done} or {@code failed} when the work is over; the
+ * cause of a failure is appended to the file. Atomic moves make the directory safe to share by workers of different
+ * processes. Shards left in {@code running} by a crashed worker can be moved back to {@code pending} by hand.
+ * <p>
+ * A taken shard is reported back as the very instance {@link #take()} returned, so shard files with equal contents are
+ * still told apart. A file that can't be parsed is moved to {@code failed} right away.
+ */
+public class OzfDirectoryJobSource implements OzfJobSource {
+    private static final String SUFFIX = ".shard";
+    private final Path pending;
+    private final Path running;
+    private final Path done;
+    private final Path failed;
+    private final Map<OzfShard, Path> claimed = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /**
+     * @param directory the queue directory, subdirectories are created if needed
+     * @throws IOException if the subdirectories can't be created
+     */
+    public OzfDirectoryJobSource(Path directory) throws IOException {
+        this.pending = Files.createDirectories(directory.resolve("pending"));
+        this.running = Files.createDirectories(directory.resolve("running"));
+        this.done = Files.createDirectories(directory.resolve("done"));
+        this.failed = Files.createDirectories(directory.resolve("failed"));
+    }
+
+    /**
+     * Adds shards to {@code pending}. A shard file appears there only when it is completely written.
+     */
+    public void submit(Collection<OzfShard> shards) throws IOException {
+        for (OzfShard shard : shards) {
+            Path tmp = Files.createTempFile(pending, "", ".tmp");
+
+            Files.write(tmp, shard.toString().getBytes(StandardCharsets.UTF_8));
+
+            String name = tmp.getFileName().toString();
+
+            Files.move(tmp, pending.resolve(name.substring(0, name.length() - 4) + SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public OzfShard take() throws IOException {
+        for (Path path : list(pending)) {
+            Path claimedPath = running.resolve(path.getFileName());
+
+            try {
+                Files.move(path, claimedPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                // claimed by another worker
+                continue;
+            }
+
+            OzfShard shard;
+
+            try {
+                shard = OzfShard.parse(new String(Files.readAllBytes(claimedPath), StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                moveToFailed(claimedPath, e);
+
+                continue;
+            }
+
+            claimed.put(shard, claimedPath);
+
+            return shard;
+        }
+
+        return null;
+    }
+
+    @Override
+    public void completed(OzfShard shard) throws IOException {
+        Path path = release(shard);
+
+        Files.move(path, done.resolve(path.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void failed(OzfShard shard, Throwable cause) throws IOException {
+        moveToFailed(release(shard), cause);
+    }
+
+    public List<Path> getPending() throws IOException {
+        return list(pending);
+    }
+
+    public List<Path> getDone() throws IOException {
+        return list(done);
+    }
+
+    public List<Path> getFailed() throws IOException {
+        return list(failed);
+    }
+
+    private void moveToFailed(Path path, Throwable cause) throws IOException {
+        StringWriter stackTrace = new StringWriter();
+
+        try (PrintWriter writer = new PrintWriter(stackTrace)) {
+            writer.println();
+            cause.printStackTrace(writer);
+        }
+
+        Files.write(path, stackTrace.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Files.move(path, failed.resolve(path.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path release(OzfShard shard) {
+        Path path = claimed.remove(shard);
+
+        if (path == null) {
+            throw new IllegalArgumentException("shard " + shard + " is not taken!");
+        }
+
+        return path;
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+
+        Collections.sort(paths);
+
+        return paths;
+    }
+}
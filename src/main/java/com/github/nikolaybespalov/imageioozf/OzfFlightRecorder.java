@@ -0,0 +1,278 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of {@link OzfImageReader}.
+ * <p>
+ * Events are only created when the JVM has JFR (Java 8u262 or newer, any Java 11+) and the event is enabled in a
+ * running recording, otherwise every method here is a cheap no-op. Event classes are referenced by this class only and
+ * never as {@link Event}, so the class passes verification and the reader keeps working on JVMs without
+ * {@code jdk.jfr}.
+ * <p>
+ * Thresholds are set by the annotations below and can be changed like for any other event, for example in a .jfc
+ * file: {@code <event name="com.github.nikolaybespalov.imageioozf.Tile"><setting name="threshold">5 ms</setting></event>}
+ */
+final class OzfFlightRecorder {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private OzfFlightRecorder() {
+    }
+
+    @Name("com.github.nikolaybespalov.imageioozf.Header")
+    @Label("OZF Header Read")
+    @Category({"ImageIO", "OZF"})
+    @Threshold("0 ms")
+    static final class HeaderEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Encrypted")
+        boolean encrypted;
+
+        @Label("Zoom Levels")
+        int levels;
+    }
+
+    @Name("com.github.nikolaybespalov.imageioozf.Tile")
+    @Label("OZF Tile Decode")
+    @Description("Getting of a decoded tile, from the tile cache or the file")
+    @Category({"ImageIO", "OZF"})
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class TileEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Zoom Level")
+        int level;
+
+        @Label("Column")
+        int x;
+
+        @Label("Row")
+        int y;
+
+        @Label("Cached")
+        boolean cached;
+
+        @Label("Compressed Size")
+        @DataAmount
+        int compressedSize;
+
+        @Label("I/O Duration")
+        @Timespan
+        long ioDuration;
+
+        @Label("Inflate Duration")
+        @Timespan
+        long inflateDuration;
+    }
+
+    @Name("com.github.nikolaybespalov.imageioozf.ReadTile")
+    @Label("OZF Read Tile")
+    @Category({"ImageIO", "OZF"})
+    @Threshold("1 ms")
+    static final class ReadTileEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Zoom Level")
+        int level;
+
+        @Label("Column")
+        int x;
+
+        @Label("Row")
+        int y;
+    }
+
+    @Name("com.github.nikolaybespalov.imageioozf.Read")
+    @Label("OZF Read Region")
+    @Category({"ImageIO", "OZF"})
+    @Threshold("10 ms")
+    static final class ReadEvent extends Event {
+        @Label("Source")
+        String source;
+
+        @Label("Zoom Level")
+        int level;
+
+        @Label("X")
+        int regionX;
+
+        @Label("Y")
+        int regionY;
+
+        @Label("Width")
+        int regionWidth;
+
+        @Label("Height")
+        int regionHeight;
+
+        @Label("Tiles")
+        int tiles;
+
+        @Label("Aborted")
+        boolean aborted;
+    }
+
+    /**
+     * @return the started event or null if it is not recorded
+     */
+    static Object beginHeader() {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        HeaderEvent event = new HeaderEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return event;
+    }
+
+    static void commitHeader(Object e, String source, boolean encrypted, int levels) {
+        HeaderEvent event = (HeaderEvent) e;
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.encrypted = encrypted;
+            event.levels = levels;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return the started event or null if it is not recorded
+     */
+    static Object beginTile() {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        TileEvent event = new TileEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return event;
+    }
+
+    static void commitTile(Object e, String source, int level, int x, int y, boolean cached, int compressedSize, long ioDuration, long inflateDuration) {
+        TileEvent event = (TileEvent) e;
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.level = level;
+            event.x = x;
+            event.y = y;
+            event.cached = cached;
+            event.compressedSize = compressedSize;
+            event.ioDuration = ioDuration;
+            event.inflateDuration = inflateDuration;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return the started event or null if it is not recorded
+     */
+    static Object beginReadTile() {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        ReadTileEvent event = new ReadTileEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return event;
+    }
+
+    static void commitReadTile(Object e, String source, int level, int x, int y) {
+        ReadTileEvent event = (ReadTileEvent) e;
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.level = level;
+            event.x = x;
+            event.y = y;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return the started event or null if it is not recorded
+     */
+    static Object beginRead() {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        ReadEvent event = new ReadEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return event;
+    }
+
+    static void commitRead(Object e, String source, int level, int x, int y, int width, int height, int tiles, boolean aborted) {
+        ReadEvent event = (ReadEvent) e;
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.level = level;
+            event.regionX = x;
+            event.regionY = y;
+            event.regionWidth = width;
+            event.regionHeight = height;
+            event.tiles = tiles;
+            event.aborted = aborted;
+            event.commit();
+        }
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+
+            new TileEvent().isEnabled();
+
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
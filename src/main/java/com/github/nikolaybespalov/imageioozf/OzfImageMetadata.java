@@ -0,0 +1,214 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import java.awt.image.IndexColorModel;
+
+/**
+ * Structure of a zoom level: its size, tile grid, palette and compressed size of every tile.
+ * <p>
+ * Compressed sizes tell how much has to be read and inflated for any region, without decoding anything. See
+ * {@link OzfImageMetadataFormat} for the native tree, the standard tree is supported as well. Read-only.
+ */
+public final class OzfImageMetadata extends IIOMetadata {
+    private final int width;
+    private final int height;
+    private final int xTiles;
+    private final int yTiles;
+    private final IndexColorModel palette;
+    private final int[] compressedTileSizes;
+
+    OzfImageMetadata(int width, int height, int xTiles, int yTiles, IndexColorModel palette, int[] compressedTileSizes) {
+        super(true, OzfImageMetadataFormat.NATIVE_FORMAT_NAME, OzfImageMetadataFormat.class.getName(), null, null);
+
+        this.width = width;
+        this.height = height;
+        this.xTiles = xTiles;
+        this.yTiles = yTiles;
+        this.palette = palette;
+        this.compressedTileSizes = compressedTileSizes;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getXTiles() {
+        return xTiles;
+    }
+
+    public int getYTiles() {
+        return yTiles;
+    }
+
+    public IndexColorModel getPalette() {
+        return palette;
+    }
+
+    /**
+     * @return compressed size of the tile in bytes
+     */
+    public int getCompressedTileSize(int x, int y) {
+        if (x < 0 || x >= xTiles || y < 0 || y >= yTiles) {
+            throw new IllegalArgumentException("bad tile index!");
+        }
+
+        return compressedTileSizes[y * xTiles + x];
+    }
+
+    /**
+     * @return compressed sizes of all tiles row by row
+     */
+    public int[] getCompressedTileSizes() {
+        return compressedTileSizes.clone();
+    }
+
+    /**
+     * @return compressed size of all tiles in bytes
+     */
+    public long getCompressedSize() {
+        long size = 0;
+
+        for (int tileSize : compressedTileSizes) {
+            size += tileSize;
+        }
+
+        return size;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public Node getAsTree(String formatName) {
+        if (nativeMetadataFormatName.equals(formatName)) {
+            return getNativeTree();
+        }
+
+        if (IIOMetadataFormatImpl.standardMetadataFormatName.equals(formatName)) {
+            return getStandardTree();
+        }
+
+        throw new IllegalArgumentException("unsupported format " + formatName + "!");
+    }
+
+    private Node getNativeTree() {
+        IIOMetadataNode root = new IIOMetadataNode(nativeMetadataFormatName);
+
+        root.setAttribute("width", Integer.toString(width));
+        root.setAttribute("height", Integer.toString(height));
+        root.setAttribute("tileWidth", Integer.toString(OzfTileCodec.TILE_WIDTH));
+        root.setAttribute("tileHeight", Integer.toString(OzfTileCodec.TILE_HEIGHT));
+        root.setAttribute("xTiles", Integer.toString(xTiles));
+        root.setAttribute("yTiles", Integer.toString(yTiles));
+        root.setAttribute("compressedSize", Long.toString(getCompressedSize()));
+
+        root.appendChild(createPaletteNode("Palette", "PaletteEntry"));
+
+        IIOMetadataNode tileSizesNode = new IIOMetadataNode("CompressedTileSizes");
+
+        tileSizesNode.setUserObject(getCompressedTileSizes());
+
+        root.appendChild(tileSizesNode);
+
+        return root;
+    }
+
+    @Override
+    protected IIOMetadataNode getStandardChromaNode() {
+        IIOMetadataNode chroma = new IIOMetadataNode("Chroma");
+
+        IIOMetadataNode colorSpaceType = new IIOMetadataNode("ColorSpaceType");
+        colorSpaceType.setAttribute("name", "RGB");
+        chroma.appendChild(colorSpaceType);
+
+        IIOMetadataNode numChannels = new IIOMetadataNode("NumChannels");
+        numChannels.setAttribute("value", "3");
+        chroma.appendChild(numChannels);
+
+        chroma.appendChild(createPaletteNode("Palette", "PaletteEntry"));
+
+        return chroma;
+    }
+
+    @Override
+    protected IIOMetadataNode getStandardCompressionNode() {
+        IIOMetadataNode compression = new IIOMetadataNode("Compression");
+
+        IIOMetadataNode compressionTypeName = new IIOMetadataNode("CompressionTypeName");
+        compressionTypeName.setAttribute("value", "Deflate");
+        compression.appendChild(compressionTypeName);
+
+        IIOMetadataNode lossless = new IIOMetadataNode("Lossless");
+        lossless.setAttribute("value", "TRUE");
+        compression.appendChild(lossless);
+
+        return compression;
+    }
+
+    @Override
+    protected IIOMetadataNode getStandardDataNode() {
+        IIOMetadataNode data = new IIOMetadataNode("Data");
+
+        IIOMetadataNode planarConfiguration = new IIOMetadataNode("PlanarConfiguration");
+        planarConfiguration.setAttribute("value", "PixelInterleaved");
+        data.appendChild(planarConfiguration);
+
+        IIOMetadataNode sampleFormat = new IIOMetadataNode("SampleFormat");
+        sampleFormat.setAttribute("value", "Index");
+        data.appendChild(sampleFormat);
+
+        IIOMetadataNode bitsPerSample = new IIOMetadataNode("BitsPerSample");
+        bitsPerSample.setAttribute("value", "8");
+        data.appendChild(bitsPerSample);
+
+        return data;
+    }
+
+    @Override
+    protected IIOMetadataNode getStandardDimensionNode() {
+        IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+
+        IIOMetadataNode imageOrientation = new IIOMetadataNode("ImageOrientation");
+        imageOrientation.setAttribute("value", "Normal");
+        dimension.appendChild(imageOrientation);
+
+        return dimension;
+    }
+
+    private IIOMetadataNode createPaletteNode(String name, String entryName) {
+        IIOMetadataNode paletteNode = new IIOMetadataNode(name);
+
+        for (int i = 0; i < palette.getMapSize(); i++) {
+            IIOMetadataNode entry = new IIOMetadataNode(entryName);
+
+            entry.setAttribute("index", Integer.toString(i));
+            entry.setAttribute("red", Integer.toString(palette.getRed(i)));
+            entry.setAttribute("green", Integer.toString(palette.getGreen(i)));
+            entry.setAttribute("blue", Integer.toString(palette.getBlue(i)));
+
+            paletteNode.appendChild(entry);
+        }
+
+        return paletteNode;
+    }
+
+    @Override
+    public void mergeTree(String formatName, Node root) {
+        throw new IllegalStateException("metadata is read-only!");
+    }
+
+    @Override
+    public void reset() {
+        throw new IllegalStateException("metadata is read-only!");
+    }
+}
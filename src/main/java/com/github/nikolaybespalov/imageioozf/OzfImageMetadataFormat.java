@@ -0,0 +1,52 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadataFormat;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+
+/**
+ * Native image metadata format, see {@link OzfImageMetadata}.
+ * <pre>
+ * &lt;com_github_nikolaybespalov_imageioozf_image_1.0 width height tileWidth tileHeight xTiles yTiles compressedSize&gt;
+ *   &lt;Palette&gt;
+ *     &lt;PaletteEntry index red green blue/&gt;*
+ *   &lt;/Palette&gt;
+ *   &lt;CompressedTileSizes/&gt; (user object: int[] of xTiles * yTiles sizes, row by row)
+ * &lt;/com_github_nikolaybespalov_imageioozf_image_1.0&gt;
+ * </pre>
+ */
+public final class OzfImageMetadataFormat extends IIOMetadataFormatImpl {
+    public static final String NATIVE_FORMAT_NAME = "com_github_nikolaybespalov_imageioozf_image_1.0";
+    private static final OzfImageMetadataFormat instance = new OzfImageMetadataFormat();
+
+    private OzfImageMetadataFormat() {
+        super(NATIVE_FORMAT_NAME, CHILD_POLICY_ALL);
+
+        addAttribute(NATIVE_FORMAT_NAME, "width", DATATYPE_INTEGER, true, null, "1", null, true, false);
+        addAttribute(NATIVE_FORMAT_NAME, "height", DATATYPE_INTEGER, true, null, "1", null, true, false);
+        addAttribute(NATIVE_FORMAT_NAME, "tileWidth", DATATYPE_INTEGER, true, "64");
+        addAttribute(NATIVE_FORMAT_NAME, "tileHeight", DATATYPE_INTEGER, true, "64");
+        addAttribute(NATIVE_FORMAT_NAME, "xTiles", DATATYPE_INTEGER, true, null, "1", "65535", true, true);
+        addAttribute(NATIVE_FORMAT_NAME, "yTiles", DATATYPE_INTEGER, true, null, "1", "65535", true, true);
+        addAttribute(NATIVE_FORMAT_NAME, "compressedSize", DATATYPE_INTEGER, true, null, "0", null, true, false);
+
+        addElement("Palette", NATIVE_FORMAT_NAME, 256, 256);
+        addElement("PaletteEntry", "Palette", CHILD_POLICY_EMPTY);
+        addAttribute("PaletteEntry", "index", DATATYPE_INTEGER, true, null, "0", "255", true, true);
+        addAttribute("PaletteEntry", "red", DATATYPE_INTEGER, true, null, "0", "255", true, true);
+        addAttribute("PaletteEntry", "green", DATATYPE_INTEGER, true, null, "0", "255", true, true);
+        addAttribute("PaletteEntry", "blue", DATATYPE_INTEGER, true, null, "0", "255", true, true);
+
+        addElement("CompressedTileSizes", NATIVE_FORMAT_NAME, CHILD_POLICY_EMPTY);
+        addObjectValue("CompressedTileSizes", int[].class, 0, Integer.MAX_VALUE);
+    }
+
+    public static IIOMetadataFormat getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean canNodeAppear(String elementName, ImageTypeSpecifier imageType) {
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageReadParam;
+import java.util.concurrent.Executor;
+
+/**
+ * Parameters of {@link OzfImageReader}.
+ * <p>
+ * With an executor set, tiles of {@link OzfImageReader#read(int, ImageReadParam)} are inflated in parallel. The file is
+ * still read by the calling thread, and listeners are still called on it, in tile order.
+ * <p>
+ * In lenient mode a tile that can't be read or inflated doesn't fail the read: it is filled with the fill index,
+ * reported as a warning and listed by {@link OzfImageReader#getDamagedTiles()}.
+ */
+public class OzfImageReadParam extends ImageReadParam {
+    private Executor executor;
+    private int tilesInFlight = 4 * Runtime.getRuntime().availableProcessors();
+    private boolean lenient = false;
+    private int fillIndex = 0;
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor executor to inflate tiles, or null to inflate them on the calling thread (the default)
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public int getTilesInFlight() {
+        return tilesInFlight;
+    }
+
+    /**
+     * @param tilesInFlight maximum number of tiles handed to the executor and not yet finished
+     */
+    public void setTilesInFlight(int tilesInFlight) {
+        if (tilesInFlight < 1) {
+            throw new IllegalArgumentException("tilesInFlight must be positive!");
+        }
+
+        this.tilesInFlight = tilesInFlight;
+    }
+
+    public boolean isLenient() {
+        return lenient;
+    }
+
+    /**
+     * @param lenient true to replace damaged tiles with the fill index instead of failing
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    public int getFillIndex() {
+        return fillIndex;
+    }
+
+    /**
+     * @param fillIndex palette index to fill damaged tiles with, 0 by default
+     */
+    public void setFillIndex(int fillIndex) {
+        if (fillIndex < 0 || fillIndex > 255) {
+            throw new IllegalArgumentException("bad fillIndex!");
+        }
+
+        this.fillIndex = fillIndex;
+    }
+}
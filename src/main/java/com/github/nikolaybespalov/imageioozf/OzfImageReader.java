@@ -1,7 +1,6 @@
 package com.github.nikolaybespalov.imageioozf;
 
-import org.apache.commons.io.IOUtils;
-
+import javax.imageio.IIOException;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
@@ -10,31 +9,41 @@ import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.*;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.zip.InflaterInputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.stream.IntStream;
 
 import static com.github.nikolaybespalov.imageioozf.OzfDecoder.decode;
 
 /**
  * https://docs.oracle.com/javase/8/docs/technotes/guides/imageio/spec/imageio_guideTOC.fm.html
- * <p>
- * TODO: Listeners for long operations
  *
  * @see <a href="https://trac.osgeo.org/gdal/browser/sandbox/klokan/ozf/ozf-binary-format-description.txt">ozf-binary-format-description.txt</a>
  */
-class OzfImageReader extends ImageReader {
+public class OzfImageReader extends ImageReader {
     private static final int FILE_HEADER_SIZE = 14;
     private static final int INITIAL_KEY_INDEX = 0x93;
+    private static final int OZF4_KEY_TABLE_SIZE = 0x9C;
     private static final int OZF_TILE_WIDTH = 64;
     private static final int OZF_TILE_HEIGHT = 64;
-    private static final int OZF_ENCRYPTION_DEPTH = 16;
+    private static final int DEFAULT_TILES_IN_FLIGHT = 4 * Runtime.getRuntime().availableProcessors();
+    static final int OZF_ENCRYPTION_DEPTH = 16;
+    private static final int[] BANDS = {0};
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
     private ImageInputStream stream;
     private ImageInputStream encryptedStream;
     private boolean gotHeader = false;
@@ -42,6 +51,13 @@ class OzfImageReader extends ImageReader {
     private byte key;
     private final List<ZoomLevel> zoomLevels = new ArrayList<>();
     private final List<ZoomLevel> thumbnails = new ArrayList<>();
+    private OzfTileCache tileCache;
+    private Object tileCacheSource;
+    private String sourceName;
+    private OzfTileIndex tileIndex;
+    private OzfMetrics metrics = OzfMetrics.NONE;
+    private OzfAdmissionController admissionController;
+    private final List<OzfDamagedTile> damagedTiles = new ArrayList<>();
 
     private class ZoomLevel {
         private final int width;
@@ -50,6 +66,11 @@ class OzfImageReader extends ImageReader {
         private final int yTiles;
         private final int[] tileOffsetTable;
         private final ColorModel cm;
+        private final SampleModel tileSampleModel;
+        private final ImageTypeSpecifier imageType;
+        // compressed tiles as they are in the file (still encrypted), see preload
+        private byte[] payload;
+        private long payloadOffset;
 
         ZoomLevel(int width, int height, int xTiles, int yTiles, byte[] palette, int[] tileOffsetTable) {
             this.width = width;
@@ -70,6 +91,32 @@ class OzfImageReader extends ImageReader {
             }
 
             this.cm = new IndexColorModel(8, 256, r, g, b);
+
+            // both are immutable, so every tile and image of the level shares them
+            this.tileSampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, OZF_TILE_WIDTH, OZF_TILE_HEIGHT, 1, OZF_TILE_WIDTH, BANDS);
+            this.imageType = new ImageTypeSpecifier(cm, tileSampleModel);
+        }
+
+        /**
+         * Offsets are unsigned, so files up to 4 GB are fine.
+         */
+        long getTileOffset(int i) {
+            return Integer.toUnsignedLong(tileOffsetTable[i]);
+        }
+
+        /**
+         * @return where tiles of the level start and end in the file: {start, end}
+         */
+        long[] getPayloadRange() {
+            long start = Long.MAX_VALUE;
+            long end = 0;
+
+            for (int i = 0; i < tileOffsetTable.length; i++) {
+                start = Math.min(start, getTileOffset(i));
+                end = Math.max(end, getTileOffset(i));
+            }
+
+            return new long[]{start, end};
         }
     }
 
@@ -81,6 +128,165 @@ class OzfImageReader extends ImageReader {
     public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
         stream = (ImageInputStream) input;
         stream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+
+        this.input = input;
+        this.seekForwardOnly = seekForwardOnly;
+        this.ignoreMetadata = ignoreMetadata;
+
+        gotHeader = false;
+        zoomLevels.clear();
+        thumbnails.clear();
+        tileCache = null;
+        tileCacheSource = null;
+        sourceName = null;
+        tileIndex = null;
+        damagedTiles.clear();
+    }
+
+    /**
+     * Makes the reader keep decoded tiles in the cache and look for them there before reading the input.
+     * <p>
+     * The cache can be shared by many readers, tiles are told apart by the source. Readers of the same file should use
+     * equal sources, for example the file path, readers of different files must use different ones. The cache is
+     * detached by {@link #setInput(Object, boolean, boolean)}.
+     *
+     * @param tileCache the cache or null to stop caching
+     * @param source    identifier of the input
+     */
+    public void setTileCache(OzfTileCache tileCache, Object source) {
+        if (tileCache != null && source == null) {
+            throw new IllegalArgumentException("source is null!");
+        }
+
+        this.tileCache = tileCache;
+        this.tileCacheSource = source;
+    }
+
+    /**
+     * Names the input in Java Flight Recorder events, see {@link OzfFlightRecorder}. Without a name events carry the
+     * tile cache source, if there is one. The name is reset by {@link #setInput(Object, boolean, boolean)}.
+     *
+     * @param sourceName the name, for example the file path, or null
+     */
+    public void setSourceName(String sourceName) {
+        this.sourceName = sourceName;
+    }
+
+    /**
+     * Makes the reader fill uniform tiles from the index, without reading or inflating them.
+     * <p>
+     * The index must be built for the input, see {@link OzfTileIndex#build}. Pixels of uniform edge tiles beyond the
+     * image are filled as well, so {@link #readTile} may differ there. The index is detached by
+     * {@link #setInput(Object, boolean, boolean)}.
+     *
+     * @param tileIndex the index or null to read all tiles
+     * @throws IOException if an error occurs during reading the header
+     */
+    public void setTileIndex(OzfTileIndex tileIndex) throws IOException {
+        if (tileIndex != null && !tileIndex.matches(this)) {
+            throw new IllegalArgumentException("tile index doesn't match the input!");
+        }
+
+        this.tileIndex = tileIndex;
+    }
+
+    /**
+     * Makes the reader report its measurements to the metrics, see {@link OzfMetrics}.
+     * <p>
+     * Unlike the tile cache, the metrics stay attached when the input changes.
+     *
+     * @param metrics the metrics or null to stop reporting
+     */
+    public void setMetrics(OzfMetrics metrics) {
+        this.metrics = metrics != null ? metrics : OzfMetrics.NONE;
+    }
+
+    public OzfMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes {@link #read(int, ImageReadParam)} and {@link #readRaster(int, ImageReadParam)} take the memory of the
+     * region from the budget of the controller before allocating it, waiting or failing if the budget is exhausted.
+     * Reads into a buffer and tile reads are not limited.
+     * <p>
+     * Like the metrics, the controller stays attached when the input changes.
+     *
+     * @param admissionController the controller or null to read without limits
+     */
+    public void setAdmissionController(OzfAdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Reads compressed tiles of the images into memory by one sequential read per image, so that later reads of their
+     * tiles do not touch the input and only inflate. Pays off on network file systems, where every tile read is a
+     * round trip; compressed tiles usually take several times less memory than decoded ones.
+     * <p>
+     * Images are preloaded in the given order while their tiles fit within the cap together with the images preloaded
+     * before, the rest are read from the input on demand as usual. Preloaded tiles are dropped by
+     * {@link #setInput(Object, boolean, boolean)}.
+     *
+     * @param maxMemory    maximum memory taken by preloaded tiles of the reader, in bytes
+     * @param imageIndexes the images to preload
+     * @return true if all the images are preloaded
+     * @throws IOException if an error occurs during reading
+     */
+    public boolean preload(long maxMemory, int... imageIndexes) throws IOException {
+        readHeader();
+
+        for (int imageIndex : imageIndexes) {
+            checkImageIndex(imageIndex);
+        }
+
+        long length = stream.length();
+        long memory = getPreloadedMemory();
+        boolean preloadedAll = true;
+
+        for (int imageIndex : imageIndexes) {
+            ZoomLevel zoomLevel = zoomLevels.get(imageIndex);
+
+            if (zoomLevel.payload != null) {
+                continue;
+            }
+
+            long[] range = zoomLevel.getPayloadRange();
+
+            long size = range[1] - range[0];
+
+            if (size > MAX_ARRAY_SIZE || memory + size > maxMemory || (length >= 0 && range[1] > length)) {
+                preloadedAll = false;
+
+                continue;
+            }
+
+            byte[] payload = new byte[(int) size];
+
+            stream.seek(range[0]);
+            stream.readFully(payload);
+
+            zoomLevel.payload = payload;
+            zoomLevel.payloadOffset = range[0];
+
+            memory += size;
+        }
+
+        return preloadedAll;
+    }
+
+    /**
+     * @return memory taken by preloaded tiles, in bytes, see {@link #preload(long, int...)}
+     */
+    public long getPreloadedMemory() {
+        long memory = 0;
+
+        for (ZoomLevel zoomLevel : zoomLevels) {
+            if (zoomLevel.payload != null) {
+                memory += zoomLevel.payload.length;
+            }
+        }
+
+        return memory;
     }
 
     @Override
@@ -114,25 +320,34 @@ class OzfImageReader extends ImageReader {
 
         checkImageIndex(imageIndex);
 
-        ZoomLevel zoomLevel = this.zoomLevels.get(imageIndex);
+        return Collections.singletonList(zoomLevels.get(imageIndex).imageType).iterator();
+    }
 
-        int[] bandOffset = new int[]{0};
-        SampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, 1, 1, 1, 1, bandOffset);
+    @Override
+    public IIOMetadata getStreamMetadata() throws IOException {
+        readHeader();
 
-        ImageTypeSpecifier imageTypeSpecifier = new ImageTypeSpecifier(zoomLevel.cm, sm);
+        if (ignoreMetadata) {
+            return null;
+        }
 
-        List<ImageTypeSpecifier> imageTypeSpecifiers = new ArrayList<>();
+        int[][] levels = new int[zoomLevels.size()][];
 
-        imageTypeSpecifiers.add(imageTypeSpecifier);
+        for (int i = 0; i < levels.length; i++) {
+            ZoomLevel zoomLevel = zoomLevels.get(i);
 
-        return imageTypeSpecifiers.iterator();
-    }
+            levels[i] = new int[]{zoomLevel.width, zoomLevel.height, zoomLevel.xTiles, zoomLevel.yTiles};
+        }
 
-    @Override
-    public IIOMetadata getStreamMetadata() throws IOException {
-        readHeader();
+        int[][] thumbs = new int[thumbnails.size()][];
+
+        for (int i = 0; i < thumbs.length; i++) {
+            ZoomLevel thumbnail = thumbnails.get(i);
+
+            thumbs[i] = new int[]{thumbnail.width, thumbnail.height};
+        }
 
-        return null;
+        return new OzfStreamMetadata(isOzf3 ? "ozf3" : "ozf2", levels, thumbs);
     }
 
     @Override
@@ -141,94 +356,313 @@ class OzfImageReader extends ImageReader {
 
         checkImageIndex(imageIndex);
 
-        return null;
+        if (ignoreMetadata) {
+            return null;
+        }
+
+        ZoomLevel zoomLevel = zoomLevels.get(imageIndex);
+
+        int[] compressedTileSizes = new int[zoomLevel.xTiles * zoomLevel.yTiles];
+
+        for (int i = 0; i < compressedTileSizes.length; i++) {
+            compressedTileSizes[i] = (int) (zoomLevel.getTileOffset(i + 1) - zoomLevel.getTileOffset(i));
+        }
+
+        return new OzfImageMetadata(zoomLevel.width, zoomLevel.height, zoomLevel.xTiles, zoomLevel.yTiles, (IndexColorModel) zoomLevel.cm, compressedTileSizes);
     }
 
+    @Override
+    public ImageReadParam getDefaultReadParam() {
+        return new OzfImageReadParam();
+    }
+
+    /**
+     * Reads the image or its region tile by tile. Source subsampling is honored, tiles without sampled pixels are not
+     * read at all.
+     * <p>
+     * Update listeners get a single pass with an {@code imageUpdate} for every tile copied into the image, progress
+     * listeners get an update for every tile. Progress only grows and all listeners are called on the calling thread,
+     * also when tiles are inflated in parallel (see {@link OzfImageReadParam}). An aborted read returns the image with
+     * the tiles read so far, the rest of it is left zero.
+     */
     @Override
     public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
-        boolean aborted = false;
+        Object event = OzfFlightRecorder.beginRead();
 
         clearAbortRequest();
 
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        Rectangle sourceRegion = getSourceRegion(param, getWidth(imageIndex), getHeight(imageIndex));
+
+        Dimension destSize = getDestSize(param, sourceRegion);
+
+        if ((long) destSize.width * destSize.height > MAX_ARRAY_SIZE) {
+            throw new IIOException("the region is too large for a BufferedImage, read it by parts with read(int, ImageReadParam, ByteBuffer)!");
+        }
+
+        OzfAdmissionController admissionController = this.admissionController;
+
+        // a rejected read is not started for listeners
+        long admittedBytes = admit(admissionController, destSize, param);
+
+        try {
+            processImageStarted(imageIndex);
+
+            BufferedImage image = createImage(imageIndex, destSize.width, destSize.height);
+
+            ByteBuffer result = ByteBuffer.wrap(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+
+            readRegion(imageIndex, param, sourceRegion, result, image, event);
+
+            return image;
+        } finally {
+            if (admissionController != null) {
+                admissionController.release(admittedBytes);
+            }
+        }
+    }
+
+    /**
+     * Reads palette indexes of the image or its region into the buffer, starting at its position, row by row without
+     * gaps. The position is advanced by {@code width * height} of the region after subsampling.
+     * <p>
+     * A direct or mapped buffer keeps pixels off the heap. Regions too large for a single buffer are read by parts,
+     * for example a band of rows at a time into consecutive mappings of the same file. Listeners are called as for
+     * {@link #read(int, ImageReadParam)} except for update listeners, which need an image.
+     *
+     * @param imageIndex  the index of the image
+     * @param param       the region to read or null to read the whole image
+     * @param destination the buffer to write to
+     * @throws IOException if an error occurs during reading
+     */
+    public void read(int imageIndex, ImageReadParam param, ByteBuffer destination) throws IOException {
+        Object event = OzfFlightRecorder.beginRead();
+
+        clearAbortRequest();
+
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        Rectangle sourceRegion = getSourceRegion(param, getWidth(imageIndex), getHeight(imageIndex));
+
+        Dimension destSize = getDestSize(param, sourceRegion);
+
+        long size = (long) destSize.width * destSize.height;
+
+        if (destination.remaining() < size) {
+            throw new IllegalArgumentException("destination is too small!");
+        }
+
+        // a read that fails the checks is not started for listeners
         processImageStarted(imageIndex);
 
+        readRegion(imageIndex, param, sourceRegion, destination.slice(), null, event);
+
+        destination.position(destination.position() + (int) size);
+    }
+
+    @Override
+    public boolean canReadRaster() {
+        return true;
+    }
+
+    /**
+     * Same as {@link #read(int, ImageReadParam)}, but allocates nothing except the pixels: no image types, no color
+     * model, no image. Listeners are called as for {@link #read(int, ImageReadParam, ByteBuffer)}.
+     */
+    @Override
+    public Raster readRaster(int imageIndex, ImageReadParam param) throws IOException {
+        Object event = OzfFlightRecorder.beginRead();
+
+        clearAbortRequest();
+
         readHeader();
 
         checkImageIndex(imageIndex);
 
         Rectangle sourceRegion = getSourceRegion(param, getWidth(imageIndex), getHeight(imageIndex));
 
-        byte[] result = new byte[sourceRegion.width * sourceRegion.height];
+        Dimension destSize = getDestSize(param, sourceRegion);
+
+        if ((long) destSize.width * destSize.height > MAX_ARRAY_SIZE) {
+            throw new IIOException("the region is too large for a Raster, read it by parts with read(int, ImageReadParam, ByteBuffer)!");
+        }
+
+        OzfAdmissionController admissionController = this.admissionController;
+
+        // a rejected read is not started for listeners
+        long admittedBytes = admit(admissionController, destSize, param);
+
+        try {
+            processImageStarted(imageIndex);
+
+            byte[] data = new byte[destSize.width * destSize.height];
+
+            readRegion(imageIndex, param, sourceRegion, ByteBuffer.wrap(data), null, event);
+
+            SampleModel sm = zoomLevels.get(imageIndex).tileSampleModel.createCompatibleSampleModel(destSize.width, destSize.height);
+
+            return Raster.createWritableRaster(sm, new DataBufferByte(data, data.length), null);
+        } finally {
+            if (admissionController != null) {
+                admissionController.release(admittedBytes);
+            }
+        }
+    }
+
+    /**
+     * Takes the memory of the region from the admission controller.
+     *
+     * @param admissionController the controller or null
+     * @return bytes taken, to be given back to the controller when the read is over
+     */
+    private long admit(OzfAdmissionController admissionController, Dimension destSize, ImageReadParam param) throws IOException {
+        if (admissionController == null) {
+            return 0;
+        }
+
+        int tilesInFlight = 1;
+
+        if (param instanceof OzfImageReadParam && ((OzfImageReadParam) param).getExecutor() != null) {
+            tilesInFlight = ((OzfImageReadParam) param).getTilesInFlight();
+        }
+
+        long bytes = admissionController.estimate(destSize.width, destSize.height, tilesInFlight);
+
+        admissionController.acquire(bytes, metrics);
+
+        return bytes;
+    }
+
+    /**
+     * @return size of the source region after the source subsampling of the param
+     */
+    private static Dimension getDestSize(ImageReadParam param, Rectangle sourceRegion) {
+        int xPeriod = param != null ? param.getSourceXSubsampling() : 1;
+        int yPeriod = param != null ? param.getSourceYSubsampling() : 1;
+
+        Dimension destSize = new Dimension(ceilDiv(sourceRegion.width, xPeriod), ceilDiv(sourceRegion.height, yPeriod));
+
+        if (destSize.width <= 0 || destSize.height <= 0) {
+            throw new IllegalArgumentException("bad source region!");
+        }
+
+        return destSize;
+    }
+
+    /**
+     * @param start  the first sampled pixel
+     * @param length number of pixels the samples are taken from
+     * @param period distance between the samples
+     * @param size   size of a tile
+     * @return indexes of the tiles that have at least one sample, in ascending order
+     */
+    private static int[] getSampledTiles(int start, int length, int period, int size) {
+        int end = start + length;
+
+        return IntStream.range(start / size, (end + size - 1) / size)
+                .filter(t -> start + ceilDiv(Math.max(0, t * size - start), period) * period < Math.min(end, (t + 1) * size))
+                .toArray();
+    }
+
+    private static int ceilDiv(int x, int y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    /**
+     * @param result where to put the region after subsampling, starting at index 0
+     * @param image  the image backed by the result, or null if there is none
+     */
+    private void readRegion(int imageIndex, ImageReadParam param, Rectangle sourceRegion, ByteBuffer result, BufferedImage image, Object event) throws IOException {
+        boolean aborted = false;
 
-        int xTiles = (sourceRegion.x + sourceRegion.width + OZF_TILE_WIDTH - 1) / OZF_TILE_WIDTH;
-        int yTiles = (sourceRegion.y + sourceRegion.height + OZF_TILE_HEIGHT - 1) / OZF_TILE_HEIGHT;
+        damagedTiles.clear();
 
-        int xTileIndex = sourceRegion.x / OZF_TILE_WIDTH;
-        int yTileIndex = sourceRegion.y / OZF_TILE_HEIGHT;
+        int xPeriod = param != null ? param.getSourceXSubsampling() : 1;
+        int yPeriod = param != null ? param.getSourceYSubsampling() : 1;
 
-        final int totalTiles = (yTiles - yTileIndex) * (xTiles - xTileIndex);
+        // tiles without a single sampled pixel are not read at all
+        int[] tileColumns = getSampledTiles(sourceRegion.x, sourceRegion.width, xPeriod, OZF_TILE_WIDTH);
+        int[] tileRows = getSampledTiles(sourceRegion.y, sourceRegion.height, yPeriod, OZF_TILE_HEIGHT);
+
+        final int totalTiles = tileColumns.length * tileRows.length;
         int tilesDecoded = 0;
 
-        int x1 = sourceRegion.x;
-        int y1 = sourceRegion.y;
+        metrics.regionRead(sourceRegion.width, sourceRegion.height, totalTiles);
 
-        int x2 = sourceRegion.x + sourceRegion.width;
-        int y2 = sourceRegion.y + sourceRegion.height;
+        Executor executor = Runnable::run;
+        int tilesInFlight = 1;
+        int fillIndex = -1;
 
-        for (int y = yTileIndex; y < yTiles; y++) {
-            for (int x = xTileIndex; x < xTiles; x++) {
-                if (abortRequested()) {
-                    aborted = true;
-                    y = yTiles;
-                    break;
-                }
+        if (param instanceof OzfImageReadParam) {
+            OzfImageReadParam ozfParam = (OzfImageReadParam) param;
 
-                byte[] tile = getTile(imageIndex, x, y);
+            if (ozfParam.getExecutor() != null) {
+                executor = ozfParam.getExecutor();
+                tilesInFlight = ozfParam.getTilesInFlight();
+            }
 
-                int a = x * OZF_TILE_WIDTH;
-                int b = y * OZF_TILE_HEIGHT;
-                int c = (x + 1) * OZF_TILE_WIDTH;
-                int d = (y + 1) * OZF_TILE_HEIGHT;
+            if (ozfParam.isLenient()) {
+                fillIndex = ozfParam.getFillIndex();
+            }
+        }
 
-                int tx1 = 0;
-                int ix1 = 0;
+        ArrayDeque<FutureTask<String>> copyingTiles = new ArrayDeque<>(tilesInFlight);
+        ArrayDeque<Rectangle> pendingUpdates = new ArrayDeque<>(tilesInFlight);
 
-                if (a < x1) {
-                    tx1 = x1 - a;
-                } else {
-                    ix1 = a - x1;
+        if (image != null) {
+            processPassStarted(image, 0, 0, 0, 0, 0, 1, 1, BANDS);
+        }
+
+        try {
+            for (int y : tileRows) {
+                if (aborted) {
+                    break;
                 }
 
-                int tx2 = OZF_TILE_WIDTH;
-                int ix2 = c - x1;
+                for (int x : tileColumns) {
+                    if (abortRequested()) {
+                        aborted = true;
+                        break;
+                    }
 
-                if (x2 < c) {
-                    tx2 = OZF_TILE_WIDTH - (c - x2);
-                    ix2 = sourceRegion.width;
-                }
+                    Rectangle tileRegion = new Rectangle(x * OZF_TILE_WIDTH, y * OZF_TILE_HEIGHT, OZF_TILE_WIDTH, OZF_TILE_HEIGHT).intersection(sourceRegion);
 
-                int ty1 = 0;
-                int iy1 = 0;
+                    FutureTask<String> copyingTile = createTileCopy(imageIndex, x, y, tileRegion, sourceRegion, xPeriod, yPeriod, result, fillIndex);
 
-                if (b < y1) {
-                    ty1 = y1 - b;
-                } else {
-                    iy1 = b - y1;
-                }
+                    copyingTiles.add(copyingTile);
+                    pendingUpdates.add(tileRegion);
 
-                int ty2 = OZF_TILE_HEIGHT;
+                    executor.execute(copyingTile);
 
-                if (y2 < d) {
-                    ty2 = OZF_TILE_HEIGHT - (d - y2);
-                }
+                    while (!copyingTiles.isEmpty() && (copyingTiles.size() >= tilesInFlight || copyingTiles.peek().isDone())) {
+                        processTileCopied(imageIndex, getResult(copyingTiles.remove()), pendingUpdates.remove(), image, sourceRegion, xPeriod, yPeriod);
 
-                assert (ix2 - ix1) == (tx2 - tx1);
+                        tilesDecoded++;
+                        processImageProgress(100.0F * tilesDecoded / totalTiles);
+                    }
+                }
+            }
 
-                copyPixels(tile, result, tx1, ty1, tx2, ty2, iy1, ix1, sourceRegion.width);
+            // tiles in flight are finished even after abort, so the image never changes after it is returned
+            while (!copyingTiles.isEmpty()) {
+                processTileCopied(imageIndex, getResult(copyingTiles.remove()), pendingUpdates.remove(), image, sourceRegion, xPeriod, yPeriod);
 
                 tilesDecoded++;
                 processImageProgress(100.0F * tilesDecoded / totalTiles);
             }
+        } finally {
+            for (FutureTask<String> copyingTile : copyingTiles) {
+                copyingTile.cancel(false);
+            }
+        }
+
+        if (image != null) {
+            processPassComplete(image);
         }
 
         if (aborted) {
@@ -237,20 +671,9 @@ class OzfImageReader extends ImageReader {
             processImageComplete();
         }
 
-        Iterator<ImageTypeSpecifier> it = getImageTypes(imageIndex);
-
-        assert it.hasNext();
-
-        ImageTypeSpecifier its = it.next();
-
-        ColorModel cm = its.getColorModel();
-        SampleModel sm = its.getSampleModel(sourceRegion.width, sourceRegion.height);
-
-        DataBuffer tileDataBuffer = new DataBufferByte(result, sourceRegion.width * sourceRegion.height);
-
-        WritableRaster writableRaster = Raster.createWritableRaster(sm, tileDataBuffer, null);
-
-        return new BufferedImage(cm, writableRaster, false, null);
+        if (event != null) {
+            OzfFlightRecorder.commitRead(event, getSource(), imageIndex, sourceRegion.x, sourceRegion.y, sourceRegion.width, sourceRegion.height, totalTiles, aborted);
+        }
     }
 
     @Override
@@ -300,34 +723,373 @@ class OzfImageReader extends ImageReader {
 
     @Override
     public BufferedImage readTile(int imageIndex, int x, int y) throws IOException {
+        Object event = OzfFlightRecorder.beginReadTile();
+
         readHeader();
 
         checkImageIndex(imageIndex);
 
-        if (zoomLevels.get(imageIndex).xTiles < x || x < 0) {
-            throw new IllegalArgumentException("bad x!");
+        checkTileIndex(imageIndex, x, y);
+
+        WritableRaster writableRaster = createTileRaster(imageIndex, x, y);
+
+        if (event != null) {
+            OzfFlightRecorder.commitReadTile(event, getSource(), imageIndex, x, y);
         }
 
-        if (zoomLevels.get(imageIndex).yTiles < y || y < 0) {
-            throw new IllegalArgumentException("bad y!");
+        return new BufferedImage(zoomLevels.get(imageIndex).cm, writableRaster, false, null);
+    }
+
+    /**
+     * Same as {@link #readTile(int, int, int)}, but without the image. The sample model is shared by all tiles of the
+     * image.
+     */
+    @Override
+    public Raster readTileRaster(int imageIndex, int x, int y) throws IOException {
+        Object event = OzfFlightRecorder.beginReadTile();
+
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        checkTileIndex(imageIndex, x, y);
+
+        WritableRaster writableRaster = createTileRaster(imageIndex, x, y);
+
+        if (event != null) {
+            OzfFlightRecorder.commitReadTile(event, getSource(), imageIndex, x, y);
         }
 
-        Iterator<ImageTypeSpecifier> it = getImageTypes(imageIndex);
+        return writableRaster;
+    }
 
-        assert it.hasNext();
+    /**
+     * Reads the compressed data of the tile without inflating it.
+     * <p>
+     * For ozf3 the data is decrypted, so the result is always a plain zlib stream.
+     *
+     * @param imageIndex the index of the image
+     * @param x          the column index of the tile
+     * @param y          the row index of the tile
+     * @return compressed tile data
+     * @throws IOException if an error occurs during reading
+     */
+    public ByteBuffer readRawTile(int imageIndex, int x, int y) throws IOException {
+        readHeader();
 
-        ImageTypeSpecifier its = it.next();
+        checkImageIndex(imageIndex);
 
-        ColorModel cm = its.getColorModel();
-        SampleModel sm = its.getSampleModel(OZF_TILE_WIDTH, OZF_TILE_HEIGHT);
+        checkTileIndex(imageIndex, x, y);
 
-        byte[] tileData = getTile(imageIndex, x, y);
+        ZoomLevel zoomLevel = this.zoomLevels.get(imageIndex);
 
-        DataBuffer tileDataBuffer = new DataBufferByte(tileData, OZF_TILE_WIDTH * OZF_TILE_HEIGHT);
+        int i = y * zoomLevel.xTiles + x;
+
+        long tileSize = zoomLevel.getTileOffset(i + 1) - zoomLevel.getTileOffset(i);
+
+        // preloaded tiles are always within the file
+        long length = zoomLevel.payload == null ? stream.length() : -1;
+
+        if (tileSize < 0 || tileSize > Integer.MAX_VALUE || (length >= 0 && zoomLevel.getTileOffset(i + 1) > length)) {
+            throw new IOException("bad tile offset!");
+        }
+
+        boolean timed = metrics != OzfMetrics.NONE;
+
+        long start = timed ? System.nanoTime() : 0;
+
+        byte[] tile;
+
+        if (zoomLevel.payload != null) {
+            int from = (int) (zoomLevel.getTileOffset(i) - zoomLevel.payloadOffset);
+
+            tile = Arrays.copyOfRange(zoomLevel.payload, from, from + (int) tileSize);
+        } else {
+            tile = new byte[(int) tileSize];
+
+            stream.seek(zoomLevel.getTileOffset(i));
+            stream.readFully(tile);
+        }
+
+        if (timed) {
+            long now = System.nanoTime();
+
+            metrics.tilePhase(OzfMetrics.Phase.READ, now - start);
+
+            start = now;
+        }
+
+        if (isOzf3) {
+            decode(tile, 0, Math.min(tile.length, OZF_ENCRYPTION_DEPTH), key);
+
+            if (timed) {
+                metrics.tilePhase(OzfMetrics.Phase.DECRYPT, System.nanoTime() - start);
+            }
+        }
+
+        return ByteBuffer.wrap(tile);
+    }
+
+    /**
+     * Returns compressed tiles of the image in file order, see {@link #readRawTile(int, int, int)}.
+     * <p>
+     * Tiles are read sequentially by large chunks, so it is much cheaper than calling {@code readRawTile} for every
+     * tile. The reader must not be used for anything else until the iteration is over. {@link IOException}s are
+     * rethrown as {@link java.io.UncheckedIOException}.
+     *
+     * @param imageIndex the index of the image
+     * @return iterator over all tiles of the image
+     * @throws IOException if an error occurs during reading the header
+     */
+    public Iterator<OzfRawTile> readRawTiles(int imageIndex) throws IOException {
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        ZoomLevel zoomLevel = this.zoomLevels.get(imageIndex);
+
+        return new OzfRawTileIterator(stream, zoomLevel.tileOffsetTable, zoomLevel.xTiles, isOzf3, key, OzfRawTileIterator.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Decodes all tiles of the image and passes them to the consumer.
+     * <p>
+     * Tiles are read sequentially in file order (see {@link #readRawTiles(int)}) and inflated by the executor. The
+     * consumer is called on the calling thread in the same order. At most {@code 4 * availableProcessors} tiles are
+     * decoded ahead of the consumer, so a slow consumer slows down reading rather than piling up decoded tiles. Use
+     * {@code Runnable::run} as executor to decode on the calling thread.
+     *
+     * @param imageIndex the index of the image
+     * @param executor   executor to inflate tiles
+     * @param consumer   receiver of decoded tiles
+     * @throws IOException if an error occurs during reading or decoding, or thrown by the consumer
+     */
+    public void readTiles(int imageIndex, Executor executor, OzfTileConsumer consumer) throws IOException {
+        readTiles(imageIndex, executor, DEFAULT_TILES_IN_FLIGHT, consumer);
+    }
+
+    /**
+     * Same as {@link #readTiles(int, Executor, OzfTileConsumer)}, but with explicit limit of tiles decoded ahead of
+     * the consumer.
+     *
+     * @param imageIndex    the index of the image
+     * @param executor      executor to inflate tiles
+     * @param tilesInFlight maximum number of tiles decoded but not yet consumed
+     * @param consumer      receiver of decoded tiles
+     * @throws IOException if an error occurs during reading or decoding, or thrown by the consumer
+     */
+    public void readTiles(int imageIndex, Executor executor, int tilesInFlight, OzfTileConsumer consumer) throws IOException {
+        if (tilesInFlight < 1) {
+            throw new IllegalArgumentException("tilesInFlight must be positive!");
+        }
+
+        readTiles(readRawTiles(imageIndex), executor, tilesInFlight, consumer);
+    }
+
+    /**
+     * Same as {@link #readTiles(int, Executor, int, OzfTileConsumer)}, but only for tiles of the given rectangle.
+     * <p>
+     * The rectangle is in tiles, not pixels, so disjoint rectangles never share a tile. Tiles are still read in file
+     * order.
+     *
+     * @param imageIndex    the index of the image
+     * @param tiles         the rectangle of tiles, must be within the tile grid of the image
+     * @param executor      executor to inflate tiles
+     * @param tilesInFlight maximum number of tiles decoded but not yet consumed
+     * @param consumer      receiver of decoded tiles
+     * @throws IOException if an error occurs during reading or decoding, or thrown by the consumer
+     */
+    public void readTiles(int imageIndex, Rectangle tiles, Executor executor, int tilesInFlight, OzfTileConsumer consumer) throws IOException {
+        if (tilesInFlight < 1) {
+            throw new IllegalArgumentException("tilesInFlight must be positive!");
+        }
+
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        ZoomLevel zoomLevel = this.zoomLevels.get(imageIndex);
+
+        if (tiles.isEmpty() || !new Rectangle(0, 0, zoomLevel.xTiles, zoomLevel.yTiles).contains(tiles)) {
+            throw new IllegalArgumentException("bad tiles!");
+        }
+
+        int[] indexes = new int[tiles.width * tiles.height];
+
+        for (int y = 0; y < tiles.height; y++) {
+            for (int x = 0; x < tiles.width; x++) {
+                indexes[y * tiles.width + x] = (tiles.y + y) * zoomLevel.xTiles + tiles.x + x;
+            }
+        }
+
+        readTiles(new OzfRawTileIterator(stream, zoomLevel.tileOffsetTable, zoomLevel.xTiles, isOzf3, key,
+                OzfRawTileIterator.DEFAULT_CHUNK_SIZE, indexes), executor, tilesInFlight, consumer);
+    }
+
+    private void readTiles(Iterator<OzfRawTile> rawTiles, Executor executor, int tilesInFlight, OzfTileConsumer consumer) throws IOException {
+        clearAbortRequest();
 
-        WritableRaster writableRaster = Raster.createWritableRaster(sm, tileDataBuffer, null);
+        ArrayDeque<FutureTask<byte[]>> decodingTiles = new ArrayDeque<>(tilesInFlight);
+        ArrayDeque<OzfRawTile> pendingTiles = new ArrayDeque<>(tilesInFlight);
 
-        return new BufferedImage(cm, writableRaster, false, null);
+        try {
+            while (rawTiles.hasNext() && !abortRequested()) {
+                if (decodingTiles.size() == tilesInFlight) {
+                    OzfRawTile rawTile = pendingTiles.remove();
+
+                    consumer.accept(rawTile.getX(), rawTile.getY(), getResult(decodingTiles.remove()));
+                }
+
+                OzfRawTile rawTile = rawTiles.next();
+
+                FutureTask<byte[]> decodingTile = new FutureTask<>(() -> inflateTile(rawTile.getData()));
+
+                decodingTiles.add(decodingTile);
+                pendingTiles.add(rawTile);
+
+                executor.execute(decodingTile);
+            }
+
+            while (!decodingTiles.isEmpty() && !abortRequested()) {
+                OzfRawTile rawTile = pendingTiles.remove();
+
+                consumer.accept(rawTile.getX(), rawTile.getY(), getResult(decodingTiles.remove()));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (FutureTask<byte[]> decodingTile : decodingTiles) {
+                decodingTile.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for the task and rethrows its failure as is.
+     */
+    static <T> T getResult(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException();
+        } catch (CancellationException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return tiles replaced by the fill index during the last lenient read, see {@link OzfImageReadParam#setLenient}
+     */
+    public List<OzfDamagedTile> getDamagedTiles() {
+        return Collections.unmodifiableList(new ArrayList<>(damagedTiles));
+    }
+
+    /**
+     * Checks every tile of every image: that its offsets are within the file and it inflates to a whole tile.
+     * <p>
+     * Tiles are read sequentially in file order and inflated by the executor, so the check is about as fast as
+     * reading the file. Thumbnails are not checked.
+     *
+     * @param executor executor to inflate tiles
+     * @return damaged tiles ordered by image, row and column; empty if the file is fine
+     * @throws IOException if an error occurs during reading the header or the input
+     */
+    public List<OzfDamagedTile> validate(Executor executor) throws IOException {
+        readHeader();
+
+        clearAbortRequest();
+
+        long length = stream.length();
+
+        List<OzfDamagedTile> damaged = new ArrayList<>();
+
+        for (int imageIndex = 0; imageIndex < zoomLevels.size() && !abortRequested(); imageIndex++) {
+            ZoomLevel zoomLevel = zoomLevels.get(imageIndex);
+
+            IntStream.Builder readableTiles = IntStream.builder();
+
+            for (int i = 0; i < zoomLevel.xTiles * zoomLevel.yTiles; i++) {
+                long tileOffset = zoomLevel.getTileOffset(i);
+                long tileEnd = zoomLevel.getTileOffset(i + 1);
+
+                if (tileEnd < tileOffset || (length >= 0 && tileEnd > length)) {
+                    damaged.add(new OzfDamagedTile(imageIndex, i % zoomLevel.xTiles, i / zoomLevel.xTiles, "bad tile offset!"));
+                } else {
+                    readableTiles.add(i);
+                }
+            }
+
+            Iterator<OzfRawTile> rawTiles = new OzfRawTileIterator(stream, zoomLevel.tileOffsetTable, zoomLevel.xTiles,
+                    isOzf3, key, OzfRawTileIterator.DEFAULT_CHUNK_SIZE, readableTiles.build().toArray());
+
+            ArrayDeque<FutureTask<OzfDamagedTile>> checkingTiles = new ArrayDeque<>(DEFAULT_TILES_IN_FLIGHT);
+
+            try {
+                while (rawTiles.hasNext() && !abortRequested()) {
+                    if (checkingTiles.size() == DEFAULT_TILES_IN_FLIGHT) {
+                        addIfNotNull(damaged, getResult(checkingTiles.remove()));
+                    }
+
+                    OzfRawTile rawTile = rawTiles.next();
+
+                    int index = imageIndex;
+
+                    FutureTask<OzfDamagedTile> checkingTile = new FutureTask<>(() -> {
+                        try {
+                            OzfTileCodec.inflateUnflipped(rawTile.getData(), new byte[OzfTileCodec.TILE_SIZE]);
+
+                            return null;
+                        } catch (IOException e) {
+                            return new OzfDamagedTile(index, rawTile.getX(), rawTile.getY(), String.valueOf(e.getMessage()));
+                        }
+                    });
+
+                    checkingTiles.add(checkingTile);
+
+                    executor.execute(checkingTile);
+                }
+
+                while (!checkingTiles.isEmpty()) {
+                    addIfNotNull(damaged, getResult(checkingTiles.remove()));
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                for (FutureTask<OzfDamagedTile> checkingTile : checkingTiles) {
+                    checkingTile.cancel(false);
+                }
+            }
+        }
+
+        damaged.sort(Comparator.comparingInt(OzfDamagedTile::getImageIndex)
+                .thenComparingInt(OzfDamagedTile::getY)
+                .thenComparingInt(OzfDamagedTile::getX));
+
+        return damaged;
+    }
+
+    private static <T> void addIfNotNull(List<T> list, T t) {
+        if (t != null) {
+            list.add(t);
+        }
     }
 
     @Override
@@ -383,12 +1145,91 @@ class OzfImageReader extends ImageReader {
         return super.readThumbnail(imageIndex, thumbnailIndex);
     }
 
+    /**
+     * @return rough amount of heap taken by the parsed header: tile offset tables and palettes
+     */
+    long getHeaderMemory() throws IOException {
+        readHeader();
+
+        long memory = 0;
+
+        for (List<ZoomLevel> levels : Arrays.asList(zoomLevels, thumbnails)) {
+            for (ZoomLevel zoomLevel : levels) {
+                // offsets, IndexColorModel keeps the palette as int[256] and a few more small arrays
+                memory += 4L * zoomLevel.tileOffsetTable.length + 2 * 1024 + 128;
+            }
+        }
+
+        return memory;
+    }
+
+    /**
+     * @return length of the input in bytes or -1 if it is not known
+     */
+    long getInputLength() throws IOException {
+        readHeader();
+
+        return stream.length();
+    }
+
+    /**
+     * @return the tile offset table of the image, the last entry points to the end of the tile data; must not be changed
+     */
+    int[] getTileOffsetTable(int imageIndex) throws IOException {
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        return zoomLevels.get(imageIndex).tileOffsetTable;
+    }
+
+    int getXTiles(int imageIndex) throws IOException {
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        return zoomLevels.get(imageIndex).xTiles;
+    }
+
+    int getYTiles(int imageIndex) throws IOException {
+        readHeader();
+
+        checkImageIndex(imageIndex);
+
+        return zoomLevels.get(imageIndex).yTiles;
+    }
+
+    boolean isEncrypted() throws IOException {
+        readHeader();
+
+        return isOzf3;
+    }
+
+    /**
+     * @return the key of tile data, meaningful for encrypted files only
+     */
+    byte getKey() throws IOException {
+        readHeader();
+
+        return key;
+    }
+
     private void checkImageIndex(int imageIndex) {
         if (imageIndex < 0 || imageIndex >= zoomLevels.size()) {
             throw new IndexOutOfBoundsException("bad imageIndex!");
         }
     }
 
+    private void checkTileIndex(int imageIndex, int x, int y) {
+        if (x < 0 || x >= zoomLevels.get(imageIndex).xTiles) {
+            throw new IllegalArgumentException("bad x!");
+        }
+
+        if (y < 0 || y >= zoomLevels.get(imageIndex).yTiles) {
+            throw new IllegalArgumentException("bad y!");
+        }
+    }
+
     private void checkThumbnailIndex(int thumbnailIndex) {
         if (thumbnailIndex < 0 || thumbnailIndex >= thumbnails.size()) {
             throw new IndexOutOfBoundsException("bad thumbnailIndex!");
@@ -400,6 +1241,10 @@ class OzfImageReader extends ImageReader {
             return;
         }
 
+        Object event = OzfFlightRecorder.beginHeader();
+
+        long start = System.nanoTime();
+
         byte[] header = readFileHeader();
 
         isOzf3 = (header[0] == (byte) 0x80) && (header[1] == (byte) 0x77);
@@ -409,6 +1254,12 @@ class OzfImageReader extends ImageReader {
 
             int keyTableSize = keyTable.length;
 
+            // ozf4 has the magic and the header encryption of ozf3, but a shorter key table and the rest of the file
+            // encrypted differently
+            if (keyTableSize == OZF4_KEY_TABLE_SIZE) {
+                throw new IIOException("ozf4 is not supported!");
+            }
+
             if (keyTableSize < INITIAL_KEY_INDEX + 1) {
                 throw new IllegalArgumentException("too few data!");
             }
@@ -434,6 +1285,12 @@ class OzfImageReader extends ImageReader {
         readImagesInformation();
 
         gotHeader = true;
+
+        metrics.headerRead(System.nanoTime() - start);
+
+        if (event != null) {
+            OzfFlightRecorder.commitHeader(event, getSource(), isOzf3, zoomLevels.size());
+        }
     }
 
     private byte[] readFileHeader() throws IOException {
@@ -459,15 +1316,19 @@ class OzfImageReader extends ImageReader {
     }
 
     private void readImagesInformation() throws IOException {
-        int zoomLevelTableOffset = readZoomLevelTableOffset();
+        long zoomLevelTableOffset = readZoomLevelTableOffset();
+
+        long imageTableSize = stream.length() - zoomLevelTableOffset - 4;
 
-        int imageTableSize = (int) stream.length() - zoomLevelTableOffset - 4;
+        if (isOzf3 && (imageTableSize < 0 || imageTableSize % 4 != 0)) {
+            throw new IIOException("corrupted ozf3: bad zoom level table offset!");
+        }
 
         if (imageTableSize < 0) {
             throw new IOException("an actual table size is less than zero");
         }
 
-        int images = imageTableSize / 4;
+        int images = (int) (imageTableSize / 4);
 
         stream.seek(zoomLevelTableOffset);
 
@@ -482,27 +1343,27 @@ class OzfImageReader extends ImageReader {
         }
 
         for (int imageIndex = 0; imageIndex < images; imageIndex++) {
-            int imageOffset = imageOffsetTable[imageIndex];
+            long imageOffset = Integer.toUnsignedLong(imageOffsetTable[imageIndex]);
 
             stream.seek(imageOffset);
 
             int width;
             int height;
-            short xTiles;
-            short xyTiles;
+            int xTiles;
+            int xyTiles;
             byte[] palette = new byte[1024];
 
             if (isOzf3) {
                 width = Integer.reverseBytes(encryptedStream.readInt());
                 height = Integer.reverseBytes(encryptedStream.readInt());
-                xTiles = Short.reverseBytes(encryptedStream.readShort());
-                xyTiles = Short.reverseBytes(encryptedStream.readShort());
+                xTiles = Short.toUnsignedInt(Short.reverseBytes(encryptedStream.readShort()));
+                xyTiles = Short.toUnsignedInt(Short.reverseBytes(encryptedStream.readShort()));
                 encryptedStream.readFully(palette);
             } else {
                 width = stream.readInt();
                 height = stream.readInt();
-                xTiles = stream.readShort();
-                xyTiles = stream.readShort();
+                xTiles = stream.readUnsignedShort();
+                xyTiles = stream.readUnsignedShort();
                 stream.readFully(palette);
             }
 
@@ -519,11 +1380,15 @@ class OzfImageReader extends ImageReader {
             }
 
             if (isOzf3) {
-                int tileSize = tileOffsetTable[1] - tileOffsetTable[0];
+                long tileSize = Integer.toUnsignedLong(tileOffsetTable[1]) - Integer.toUnsignedLong(tileOffsetTable[0]);
 
-                stream.seek(tileOffsetTable[0]);
+                if (tileSize < 0 || tileSize > Integer.MAX_VALUE) {
+                    throw new IOException("bad tile offset!");
+                }
 
-                byte[] tile = new byte[tileSize];
+                stream.seek(Integer.toUnsignedLong(tileOffsetTable[0]));
+
+                byte[] tile = new byte[(int) tileSize];
 
                 stream.readFully(tile);
             }
@@ -540,74 +1405,304 @@ class OzfImageReader extends ImageReader {
         }
     }
 
-    private int readZoomLevelTableOffset() throws IOException {
+    private long readZoomLevelTableOffset() throws IOException {
         stream.seek(stream.length() - 4);
 
         if (isOzf3) {
-            return Integer.reverseBytes(encryptedStream.readInt());
+            return Integer.toUnsignedLong(Integer.reverseBytes(encryptedStream.readInt()));
         }
 
-        return stream.readInt();
+        return stream.readUnsignedInt();
     }
 
-    private int decompressTile(byte[] source, byte[] dest) throws IOException {
-        InputStream inf = new InflaterInputStream(new ByteArrayInputStream(source));
+    /**
+     * @return the tile, must not be changed as it may be shared through the tile cache
+     */
+    private byte[] getTile(int imageIndex, int x, int y) throws IOException {
+        byte[] uniformTile = getUniformTile(imageIndex, x, y);
+
+        if (uniformTile != null) {
+            return uniformTile;
+        }
+
+        Object event = OzfFlightRecorder.beginTile();
+
+        OzfTileCache tileCache = this.tileCache;
+
+        if (tileCache == null) {
+            return loadTile(event, imageIndex, x, y);
+        }
 
-        ByteArrayOutputStream bas = new ByteArrayOutputStream(OZF_TILE_WIDTH * OZF_TILE_HEIGHT);
+        boolean[] loaded = {false};
 
-        int decompressedBytes = IOUtils.copy(inf, bas);
+        // concurrent requests for the same tile share one load
+        byte[] tile = tileCache.get(tileCacheSource, imageIndex, x, y, metrics, () -> {
+            loaded[0] = true;
 
-        assert decompressedBytes == OZF_TILE_WIDTH * OZF_TILE_HEIGHT;
+            return loadTile(event, imageIndex, x, y);
+        });
 
-        System.arraycopy(bas.toByteArray(), 0, dest, 0, OZF_TILE_WIDTH * OZF_TILE_HEIGHT);
+        if (!loaded[0] && event != null) {
+            OzfFlightRecorder.commitTile(event, getSource(), imageIndex, x, y, true, 0, 0, 0);
+        }
 
-        return decompressedBytes;
+        return tile;
     }
 
-    private byte[] getTile(int imageIndex, int x, int y) throws IOException {
-        ZoomLevel zoomLevel = this.zoomLevels.get(imageIndex);
+    private byte[] loadTile(Object event, int imageIndex, int x, int y) throws IOException {
+        long start = event != null ? System.nanoTime() : 0;
 
-        int i = y * zoomLevel.xTiles + x;
+        ByteBuffer compressed = readRawTile(imageIndex, x, y);
 
-        int tileSize = zoomLevel.tileOffsetTable[i + 1] - zoomLevel.tileOffsetTable[i];
+        return decodeTile(event, imageIndex, x, y, compressed, event != null ? System.nanoTime() - start : 0);
+    }
 
-        byte[] tile = new byte[tileSize];
+    /**
+     * @return the tile filled with its palette index if the tile index says it is uniform, or null
+     */
+    private byte[] getUniformTile(int imageIndex, int x, int y) {
+        OzfTileIndex tileIndex = this.tileIndex;
 
-        stream.seek(zoomLevel.tileOffsetTable[i]);
-        stream.readFully(tile);
+        return tileIndex != null ? tileIndex.getUniformTile(imageIndex, x, y) : null;
+    }
 
-        if (isOzf3) {
-            decode(tile, 0, OZF_ENCRYPTION_DEPTH, key);
+    /**
+     * @return the tile from the tile cache or null
+     */
+    private byte[] getCachedTile(Object event, int imageIndex, int x, int y) {
+        if (tileCache == null) {
+            return null;
         }
 
-        byte[] decompressedTile = new byte[OZF_TILE_WIDTH * OZF_TILE_HEIGHT];
+        byte[] tile = tileCache.get(tileCacheSource, imageIndex, x, y);
 
-        int n = decompressTile(tile, decompressedTile);
+        if (tile == null) {
+            metrics.cacheMiss();
 
-        assert n != -1;
+            return null;
+        }
 
-        // flip vertical
-        for (int lineIndex = 0; lineIndex < OZF_TILE_HEIGHT / 2; lineIndex++) {
-            byte[] temp = new byte[OZF_TILE_WIDTH];
+        metrics.cacheHit();
 
-            int topPosition = lineIndex * OZF_TILE_WIDTH;
-            int downPosition = (OZF_TILE_HEIGHT - 1 - lineIndex) * OZF_TILE_WIDTH;
+        if (event != null) {
+            OzfFlightRecorder.commitTile(event, getSource(), imageIndex, x, y, true, 0, 0, 0);
+        }
 
-            System.arraycopy(decompressedTile, topPosition, temp, 0, OZF_TILE_WIDTH);
+        return tile;
+    }
 
-            System.arraycopy(decompressedTile, downPosition, decompressedTile, topPosition, OZF_TILE_WIDTH);
+    /**
+     * Inflates the tile. Does not touch the input, so it may be called from any thread.
+     */
+    private byte[] decodeTile(Object event, int imageIndex, int x, int y, ByteBuffer compressed, long ioDuration) throws IOException {
+        long start = event != null ? System.nanoTime() : 0;
 
-            System.arraycopy(temp, 0, decompressedTile, downPosition, OZF_TILE_WIDTH);
+        byte[] tile = inflateTile(compressed);
+
+        if (event != null) {
+            OzfFlightRecorder.commitTile(event, getSource(), imageIndex, x, y, false, compressed.remaining(), ioDuration, System.nanoTime() - start);
         }
 
-        return decompressedTile;
+        return tile;
     }
 
-    private void copyPixels(byte[] source, byte[] dest, int tx1, int ty1, int tx2, int ty2, int iy1, int ix1, int imageWidth) {
-        int j = 0;
+    /**
+     * Gets the tile ready on the calling thread (from the cache or the input) and returns the task that inflates it if
+     * needed and copies the given part of it into the image.
+     *
+     * @param fillIndex palette index to fill a damaged tile with, or -1 to fail on it
+     * @return the task, its result is null or what is wrong with the tile if it is damaged
+     */
+    private FutureTask<String> createTileCopy(int imageIndex, int x, int y, Rectangle tileRegion, Rectangle sourceRegion, int xPeriod, int yPeriod,
+                                              ByteBuffer result, int fillIndex) throws IOException {
+        byte[] uniformTile = getUniformTile(imageIndex, x, y);
+
+        Object event = uniformTile == null ? OzfFlightRecorder.beginTile() : null;
+
+        byte[] cachedTile = uniformTile != null ? uniformTile : getCachedTile(event, imageIndex, x, y);
+
+        ByteBuffer compressed = null;
+        long ioDuration = 0;
+        String readFailure = null;
+
+        if (cachedTile == null) {
+            long start = event != null ? System.nanoTime() : 0;
+
+            try {
+                compressed = readRawTile(imageIndex, x, y);
+            } catch (IOException e) {
+                if (fillIndex < 0) {
+                    throw e;
+                }
+
+                readFailure = String.valueOf(e.getMessage());
+            }
+
+            ioDuration = event != null ? System.nanoTime() - start : 0;
+        }
+
+        ByteBuffer compressedTile = compressed;
+        long tileIoDuration = ioDuration;
+        String tileReadFailure = readFailure;
+
+        return new FutureTask<>(() -> {
+            byte[] tile = cachedTile;
+            String failure = tileReadFailure;
+
+            if (tile == null && failure == null) {
+                try {
+                    tile = decodeTile(event, imageIndex, x, y, compressedTile, tileIoDuration);
+
+                    if (tileCache != null) {
+                        tileCache.put(tileCacheSource, imageIndex, x, y, tile);
+                    }
+                } catch (IOException e) {
+                    if (fillIndex < 0) {
+                        throw e;
+                    }
+
+                    failure = String.valueOf(e.getMessage());
+                }
+            }
+
+            if (failure != null) {
+                tile = new byte[OzfTileCodec.TILE_SIZE];
 
-        for (int i = ty1; i < ty2; i++) {
-            System.arraycopy(source, i * OZF_TILE_WIDTH + tx1, dest, (iy1 + j++) * imageWidth + ix1, tx2 - tx1);
+                Arrays.fill(tile, (byte) fillIndex);
+            }
+
+            boolean timed = metrics != OzfMetrics.NONE;
+
+            long start = timed ? System.nanoTime() : 0;
+
+            Rectangle destRegion = getDestRegion(tileRegion, sourceRegion, xPeriod, yPeriod);
+
+            // the first sampled pixel of the tile
+            int tx = sourceRegion.x + destRegion.x * xPeriod - x * OZF_TILE_WIDTH;
+            int ty = sourceRegion.y + destRegion.y * yPeriod - y * OZF_TILE_HEIGHT;
+
+            copyPixels(tile, result, tx, ty, xPeriod, yPeriod, destRegion, ceilDiv(sourceRegion.width, xPeriod));
+
+            if (timed) {
+                metrics.tilePhase(OzfMetrics.Phase.COPY, System.nanoTime() - start);
+            }
+
+            return failure;
+        });
+    }
+
+    /**
+     * Reports the tile copied into the image, called in tile order on the calling thread.
+     *
+     * @param failure what is wrong with the tile, or null if it is fine
+     */
+    private void processTileCopied(int imageIndex, String failure, Rectangle tileRegion, BufferedImage image, Rectangle sourceRegion, int xPeriod, int yPeriod) {
+        if (failure != null) {
+            OzfDamagedTile damagedTile = new OzfDamagedTile(imageIndex, tileRegion.x / OZF_TILE_WIDTH, tileRegion.y / OZF_TILE_HEIGHT, failure);
+
+            damagedTiles.add(damagedTile);
+
+            processWarningOccurred(damagedTile.toString());
+        }
+
+        if (image != null) {
+            Rectangle destRegion = getDestRegion(tileRegion, sourceRegion, xPeriod, yPeriod);
+
+            processImageUpdate(image, destRegion.x, destRegion.y, destRegion.width, destRegion.height, 1, 1, BANDS);
+        }
+    }
+
+    /**
+     * @return the part of the result the sampled pixels of the tile region go to
+     */
+    private static Rectangle getDestRegion(Rectangle tileRegion, Rectangle sourceRegion, int xPeriod, int yPeriod) {
+        int dx1 = ceilDiv(tileRegion.x - sourceRegion.x, xPeriod);
+        int dy1 = ceilDiv(tileRegion.y - sourceRegion.y, yPeriod);
+        int dx2 = (tileRegion.x + tileRegion.width - 1 - sourceRegion.x) / xPeriod;
+        int dy2 = (tileRegion.y + tileRegion.height - 1 - sourceRegion.y) / yPeriod;
+
+        return new Rectangle(dx1, dy1, dx2 - dx1 + 1, dy2 - dy1 + 1);
+    }
+
+    private WritableRaster createTileRaster(int imageIndex, int x, int y) throws IOException {
+        byte[] tileData = getTile(imageIndex, x, y);
+
+        if (tileCache != null || tileIndex != null) {
+            // cached and uniform tiles are shared
+            tileData = tileData.clone();
+        }
+
+        DataBuffer tileDataBuffer = new DataBufferByte(tileData, OZF_TILE_WIDTH * OZF_TILE_HEIGHT);
+
+        return Raster.createWritableRaster(zoomLevels.get(imageIndex).tileSampleModel, tileDataBuffer, null);
+    }
+
+    private BufferedImage createImage(int imageIndex, int width, int height) throws IOException {
+        Iterator<ImageTypeSpecifier> it = getImageTypes(imageIndex);
+
+        assert it.hasNext();
+
+        return it.next().createBufferedImage(width, height);
+    }
+
+    /**
+     * @return what identifies the input in events: the source name if set, otherwise the tile cache source, or null
+     */
+    private String getSource() {
+        if (sourceName != null) {
+            return sourceName;
+        }
+
+        return tileCacheSource != null ? tileCacheSource.toString() : null;
+    }
+
+    /**
+     * Same as {@link OzfTileCodec#inflate(ByteBuffer)}, but reports to the metrics.
+     */
+    private byte[] inflateTile(ByteBuffer compressed) throws IOException {
+        OzfMetrics metrics = this.metrics;
+
+        if (metrics == OzfMetrics.NONE) {
+            return OzfTileCodec.inflate(compressed);
+        }
+
+        byte[] tile = new byte[OzfTileCodec.TILE_SIZE];
+
+        long start = System.nanoTime();
+
+        OzfTileCodec.inflateUnflipped(compressed, tile);
+
+        long inflated = System.nanoTime();
+
+        OzfTileCodec.flip(tile);
+
+        metrics.tilePhase(OzfMetrics.Phase.INFLATE, inflated - start);
+        metrics.tilePhase(OzfMetrics.Phase.FLIP, System.nanoTime() - inflated);
+        metrics.tileDecoded(compressed.remaining(), tile.length);
+
+        return tile;
+    }
+
+    /**
+     * Copies every {@code xPeriod}th pixel of every {@code yPeriod}th row of the tile, starting at (tx, ty), into the
+     * part of the image.
+     */
+    private void copyPixels(byte[] source, ByteBuffer dest, int tx, int ty, int xPeriod, int yPeriod, Rectangle destRegion, int imageWidth) {
+        // tiles are copied concurrently, each of them needs its own position
+        ByteBuffer d = dest.duplicate();
+
+        for (int j = 0; j < destRegion.height; j++) {
+            int i = (ty + j * yPeriod) * OZF_TILE_WIDTH + tx;
+
+            d.position((destRegion.y + j) * imageWidth + destRegion.x);
+
+            if (xPeriod == 1) {
+                d.put(source, i, destRegion.width);
+            } else {
+                for (int k = 0; k < destRegion.width; k++) {
+                    d.put(source[i + k * xPeriod]);
+                }
+            }
         }
     }
 }
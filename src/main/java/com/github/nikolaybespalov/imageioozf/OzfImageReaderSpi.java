@@ -19,9 +19,10 @@ public final class OzfImageReaderSpi extends ImageReaderSpi {
     private static final String version = "1.0";
     private static final String readerCN = "com.github.nikolaybespalov.imageioozf.OzfImageReader";
     private static final String vendorName = "Nikolay Bespalov";
+    private static final String[] writerSpiNames = {"com.github.nikolaybespalov.imageioozf.OzfImageWriterSpi"};
 
     public OzfImageReaderSpi() {
-        super(vendorName, version, formatNames, suffixes, MIMETypes, readerCN, new Class[]{File.class, FileImageInputStream.class}, null, false, null, null, null, null, true, null, null, null, null);
+        super(vendorName, version, formatNames, suffixes, MIMETypes, readerCN, new Class[]{File.class, FileImageInputStream.class}, writerSpiNames, false, OzfStreamMetadataFormat.NATIVE_FORMAT_NAME, OzfStreamMetadataFormat.class.getName(), null, null, true, OzfImageMetadataFormat.NATIVE_FORMAT_NAME, OzfImageMetadataFormat.class.getName(), null, null);
     }
 
     @Override
@@ -42,7 +43,7 @@ public final class OzfImageReaderSpi extends ImageReaderSpi {
         stream.readFully(b);
         stream.reset();
 
-        // ozf3
+        // ozf3 or ozf4
         if (b[0] == (byte) 0x80 && b[1] == (byte) 0x77) {
             stream.mark();
 
@@ -65,7 +66,7 @@ public final class OzfImageReaderSpi extends ImageReaderSpi {
             return false;
         }
 
-        // ozf2 or ozf3 and magic numbers
+        // ozf2, ozf3 or ozf4 and magic numbers
         return b[6] == (byte) 0x40 && b[7] == (byte) 0x00 &&
                 b[8] == (byte) 0x01 && b[9] == (byte) 0x00 &&
                 b[10] == (byte) 0x36 && b[11] == (byte) 0x04 &&
@@ -0,0 +1,54 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageWriteParam;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parameters of {@link OzfImageWriter}.
+ * <p>
+ * Tiles are always compressed with deflate, the compression quality maps to the compression level the same way as
+ * for PNG: 1.0 is the fastest, 0.0 is the smallest.
+ * <p>
+ * The whole image is always written: source regions, source subsampling, source bands and destination offsets are
+ * rejected by the writer.
+ */
+public class OzfImageWriteParam extends ImageWriteParam {
+    private boolean encrypted = false;
+    private Executor executor = ForkJoinPool.commonPool();
+
+    public OzfImageWriteParam(Locale locale) {
+        super(locale);
+
+        canWriteCompressed = true;
+        compressionTypes = new String[]{"Deflate"};
+        compressionType = compressionTypes[0];
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * @param encrypted true to write ozf3, false to write ozf2
+     */
+    public void setEncrypted(boolean encrypted) {
+        this.encrypted = encrypted;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor executor to compress tiles, {@link ForkJoinPool#commonPool()} by default
+     */
+    public void setExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null!");
+        }
+
+        this.executor = executor;
+    }
+}
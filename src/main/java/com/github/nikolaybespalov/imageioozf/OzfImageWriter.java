@@ -0,0 +1,638 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.RenderedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+
+import static com.github.nikolaybespalov.imageioozf.OzfDecoder.decode;
+import static com.github.nikolaybespalov.imageioozf.OzfTileCodec.TILE_HEIGHT;
+import static com.github.nikolaybespalov.imageioozf.OzfTileCodec.TILE_WIDTH;
+
+/**
+ * Writes ozf2 and ozf3 files.
+ * <p>
+ * The image is converted to a 256 color palette and read by strips of 64 lines, every strip feeds all zoom levels at
+ * once. Tiles of the full size level go straight to the output, tiles of smaller levels and thumbnails are kept aside
+ * (in temporary files if {@link ImageIO#getUseCache()}) until the full size level is done. Tiles are compressed in
+ * parallel by {@link OzfImageWriteParam#getExecutor()}.
+ * <p>
+ * File layout: header, key table (ozf3), image information, zoom levels (tiles followed by the zoom level header),
+ * zoom level table, offset of the zoom level table.
+ *
+ * @see OzfImageReader
+ */
+public class OzfImageWriter extends ImageWriter {
+    private static final int OZF2_MAGIC = 0x7778;
+    private static final int OZF3_MAGIC = 0x7780;
+    private static final int KEY_TABLE_SIZE = 0xF1;
+    private static final int INITIAL_KEY_INDEX = 0x93;
+    private static final int MARKER = 0x77777777;
+    private static final int PALETTE_SIZE = 1024;
+    private static final int[] THUMBNAIL_SIZES = {300, 130};
+    private static final int TILES_IN_FLIGHT = 4 * Runtime.getRuntime().availableProcessors();
+    private static final long MAX_FILE_SIZE = 0xFFFFFFFFL;
+    private ImageOutputStream stream;
+    private boolean encrypted;
+    private byte key;
+
+    /**
+     * A zoom level or a thumbnail being written.
+     */
+    private static final class Level {
+        private final int width;
+        private final int height;
+        private final int xTiles;
+        private final int yTiles;
+        private final int sourceHeight;
+        /**
+         * Source column of every column of the level.
+         */
+        private final int[] columns;
+        private final long[] tileOffsetTable;
+        private final byte[] strip;
+        private int nextRow = 0;
+        private int stripRows = 0;
+        private int stripIndex = 0;
+        /**
+         * Where tiles of levels other than the first one are kept until they can be copied to the output.
+         */
+        private OutputStream sink;
+        private File sinkFile;
+        private long sinkSize = 0;
+
+        Level(int width, int height, int sourceWidth, int sourceHeight) {
+            this.width = width;
+            this.height = height;
+            this.xTiles = (width + TILE_WIDTH - 1) / TILE_WIDTH;
+            this.yTiles = (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+            this.sourceHeight = sourceHeight;
+            this.columns = new int[width];
+            this.tileOffsetTable = new long[xTiles * yTiles + 1];
+            this.strip = new byte[xTiles * TILE_WIDTH * TILE_HEIGHT];
+
+            for (int x = 0; x < width; x++) {
+                columns[x] = (int) ((long) x * sourceWidth / width);
+            }
+        }
+
+        /**
+         * @return source row the next row of the level is taken from
+         */
+        int nextSourceRow() {
+            return (int) ((long) nextRow * sourceHeight / height);
+        }
+
+        boolean isComplete() {
+            return nextRow == height;
+        }
+
+        void addRow(byte[] sourceRows, int sourceOffset) {
+            int offset = stripRows * xTiles * TILE_WIDTH;
+
+            for (int x = 0; x < width; x++) {
+                strip[offset + x] = sourceRows[sourceOffset + columns[x]];
+            }
+
+            stripRows++;
+            nextRow++;
+        }
+
+        boolean isStripComplete() {
+            return stripRows == TILE_HEIGHT || (isComplete() && stripRows > 0);
+        }
+
+        byte[] getTile(int x) {
+            byte[] tile = new byte[TILE_WIDTH * TILE_HEIGHT];
+
+            for (int row = 0; row < TILE_HEIGHT; row++) {
+                System.arraycopy(strip, row * xTiles * TILE_WIDTH + x * TILE_WIDTH, tile, row * TILE_WIDTH, TILE_WIDTH);
+            }
+
+            return tile;
+        }
+
+        void nextStrip() {
+            Arrays.fill(strip, (byte) 0);
+
+            stripRows = 0;
+            stripIndex++;
+        }
+    }
+
+    /**
+     * A tile being compressed.
+     */
+    private static final class PendingTile {
+        private final Level level;
+        private final int index;
+        private final FutureTask<byte[]> data;
+
+        PendingTile(Level level, int index, FutureTask<byte[]> data) {
+            this.level = level;
+            this.index = index;
+            this.data = data;
+        }
+    }
+
+    OzfImageWriter(ImageWriterSpi imageWriterSpi) {
+        super(imageWriterSpi);
+    }
+
+    @Override
+    public void setOutput(Object output) {
+        super.setOutput(output);
+
+        stream = (ImageOutputStream) output;
+
+        if (stream != null) {
+            stream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Override
+    public ImageWriteParam getDefaultWriteParam() {
+        return new OzfImageWriteParam(getLocale());
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param) {
+        return null;
+    }
+
+    /**
+     * Writes the whole image. Source regions, source subsampling, source bands and destination offsets of the param are
+     * not supported and rejected with an {@link UnsupportedOperationException}, crop or convert the image beforehand.
+     */
+    @Override
+    public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IOException {
+        if (stream == null) {
+            throw new IllegalStateException("output is not set!");
+        }
+
+        if (image.hasRaster()) {
+            throw new UnsupportedOperationException("rasters are not supported!");
+        }
+
+        if (param != null) {
+            if (param.getSourceRegion() != null) {
+                throw new UnsupportedOperationException("source regions are not supported!");
+            }
+
+            if (param.getSourceXSubsampling() != 1 || param.getSourceYSubsampling() != 1
+                    || param.getSubsamplingXOffset() != 0 || param.getSubsamplingYOffset() != 0) {
+                throw new UnsupportedOperationException("source subsampling is not supported!");
+            }
+
+            if (param.getSourceBands() != null) {
+                throw new UnsupportedOperationException("source bands are not supported!");
+            }
+
+            if (param.getDestinationOffset().x != 0 || param.getDestinationOffset().y != 0) {
+                throw new UnsupportedOperationException("destination offsets are not supported!");
+            }
+        }
+
+        OzfImageWriteParam ozfParam = param instanceof OzfImageWriteParam ? (OzfImageWriteParam) param : (OzfImageWriteParam) getDefaultWriteParam();
+
+        int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+        if (param != null && param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+            compressionLevel = Math.round((1.0F - param.getCompressionQuality()) * 9);
+        }
+
+        RenderedImage renderedImage = image.getRenderedImage();
+
+        clearAbortRequest();
+
+        processImageStarted(0);
+
+        encrypted = ozfParam.isEncrypted();
+
+        List<Level> levels = createLevels(renderedImage.getWidth(), renderedImage.getHeight());
+
+        OzfQuantizer quantizer = OzfQuantizer.create(renderedImage);
+
+        try {
+            writeHeader(levels, renderedImage.getWidth(), renderedImage.getHeight());
+
+            boolean aborted = !writeTiles(renderedImage, quantizer, levels, ozfParam.getExecutor(), compressionLevel);
+
+            if (aborted) {
+                processWriteAborted();
+
+                return;
+            }
+
+            long[] levelOffsets = new long[levels.size()];
+
+            for (int i = 0; i < levels.size(); i++) {
+                Level level = levels.get(i);
+
+                if (i != 0) {
+                    writeInt(MARKER, false);
+
+                    copySink(level);
+                }
+
+                levelOffsets[i] = stream.getStreamPosition();
+
+                writeLevelHeader(level, quantizer.getPalette());
+            }
+
+            long levelTableOffset = stream.getStreamPosition();
+
+            for (long levelOffset : levelOffsets) {
+                writeOffset(levelOffset);
+            }
+
+            writeOffset(levelTableOffset);
+
+            stream.flush();
+        } finally {
+            for (Level level : levels) {
+                closeSink(level);
+            }
+        }
+
+        processImageComplete();
+    }
+
+    /**
+     * Full size level, halved levels down to a single tile, then thumbnails.
+     */
+    private List<Level> createLevels(int width, int height) {
+        // the image size is an unsigned 32 bit number of bytes in the header; checked before any level is allocated
+        if ((long) width * height > MAX_FILE_SIZE) {
+            throw new IllegalArgumentException("the image is too large!");
+        }
+
+        List<Level> levels = new ArrayList<>();
+
+        int levelWidth = width;
+        int levelHeight = height;
+
+        while (true) {
+            // OziExplorer takes levels of these sizes for thumbnails
+            if (isThumbnailSize(levelWidth, levelHeight)) {
+                if (levels.isEmpty()) {
+                    processWarningOccurred(0, "the image is enlarged by 1 pixel, otherwise it would be taken for a thumbnail");
+                }
+
+                if (levelWidth >= levelHeight) {
+                    levelWidth++;
+                } else {
+                    levelHeight++;
+                }
+            }
+
+            if (((long) levelWidth + TILE_WIDTH - 1) / TILE_WIDTH > Short.MAX_VALUE || ((long) levelHeight + TILE_HEIGHT - 1) / TILE_HEIGHT > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("the image is too large!");
+            }
+
+            levels.add(new Level(levelWidth, levelHeight, width, height));
+
+            if (Math.max(levelWidth, levelHeight) <= TILE_WIDTH) {
+                break;
+            }
+
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+        }
+
+        for (int thumbnailSize : THUMBNAIL_SIZES) {
+            double scale = (double) thumbnailSize / Math.max(width, height);
+
+            int thumbnailWidth = width >= height ? thumbnailSize : (int) Math.max(1, Math.round(width * scale));
+            int thumbnailHeight = width >= height ? (int) Math.max(1, Math.round(height * scale)) : thumbnailSize;
+
+            levels.add(new Level(thumbnailWidth, thumbnailHeight, width, height));
+        }
+
+        return levels;
+    }
+
+    private static boolean isThumbnailSize(int width, int height) {
+        int maxWidthOrHeight = Math.max(width, height);
+
+        for (int thumbnailSize : THUMBNAIL_SIZES) {
+            if (maxWidthOrHeight == thumbnailSize) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void writeHeader(List<Level> levels, int width, int height) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(14).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putShort((short) (encrypted ? OZF3_MAGIC : OZF2_MAGIC));
+        header.putInt(0); // locked
+        header.putShort((short) TILE_WIDTH);
+        header.putShort((short) 1); // version
+        header.putInt(0x436); // old header size
+
+        if (encrypted) {
+            byte[] keyTable = new byte[KEY_TABLE_SIZE];
+
+            ThreadLocalRandom.current().nextBytes(keyTable);
+
+            byte initialKey = keyTable[INITIAL_KEY_INDEX];
+
+            key = (byte) ((initialKey + 0x8A) & 0xFF);
+
+            decode(header.array(), 0, header.capacity(), initialKey);
+
+            // the magic is not encrypted
+            header.put(0, (byte) 0x80);
+            header.put(1, (byte) 0x77);
+
+            stream.write(header.array());
+            stream.write(KEY_TABLE_SIZE);
+            stream.write(keyTable);
+        } else {
+            stream.write(header.array());
+        }
+
+        // image information, the same as BITMAPINFOHEADER
+        ByteBuffer information = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+
+        information.putInt(information.capacity());
+        information.putInt(width);
+        information.putInt(height);
+        information.putShort((short) 1); // planes
+        information.putShort((short) 8); // bits per pixel
+        information.putInt(0); // compression
+        information.putInt((int) ((long) width * height)); // unsigned, checked by createLevels
+        information.putInt(0);
+        information.putInt(0);
+        information.putInt(256); // colors used
+        information.putInt(256); // colors important
+
+        if (encrypted) {
+            decode(information.array(), 0, information.capacity(), key);
+        }
+
+        stream.write(information.array());
+
+        int zoomLevels = levels.size() - THUMBNAIL_SIZES.length;
+
+        stream.writeInt(MARKER);
+        stream.writeShort(zoomLevels);
+
+        for (int i = 0; i < zoomLevels; i++) {
+            stream.writeFloat(100.0F * levels.get(i).width / width);
+        }
+
+        stream.writeInt(MARKER);
+    }
+
+    /**
+     * @return false if aborted
+     */
+    private boolean writeTiles(RenderedImage image, OzfQuantizer quantizer, List<Level> levels, Executor executor, int compressionLevel) throws IOException {
+        for (int i = 1; i < levels.size(); i++) {
+            openSink(levels.get(i));
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        ArrayDeque<PendingTile> pendingTiles = new ArrayDeque<>();
+
+        try {
+            byte[] rows = new byte[width * TILE_HEIGHT];
+
+            for (int y = 0; y < height; y += TILE_HEIGHT) {
+                if (abortRequested()) {
+                    return false;
+                }
+
+                int n = Math.min(TILE_HEIGHT, height - y);
+
+                quantizer.toIndexes(y, n, rows);
+
+                for (int row = 0; row < n; row++) {
+                    for (Level level : levels) {
+                        while (!level.isComplete() && level.nextSourceRow() == y + row) {
+                            level.addRow(rows, row * width);
+
+                            if (level.isStripComplete()) {
+                                submitStrip(level, executor, compressionLevel, pendingTiles);
+                            }
+                        }
+                    }
+                }
+
+                processImageProgress(100.0F * (y + n) / height);
+            }
+
+            while (!pendingTiles.isEmpty()) {
+                writeTile(pendingTiles.remove());
+            }
+        } finally {
+            for (PendingTile pendingTile : pendingTiles) {
+                pendingTile.data.cancel(false);
+            }
+        }
+
+        Level first = levels.get(0);
+
+        first.tileOffsetTable[first.tileOffsetTable.length - 1] = stream.getStreamPosition();
+
+        for (int i = 1; i < levels.size(); i++) {
+            Level level = levels.get(i);
+
+            level.tileOffsetTable[level.tileOffsetTable.length - 1] = level.sinkSize;
+
+            level.sink.close();
+        }
+
+        return true;
+    }
+
+    private void submitStrip(Level level, Executor executor, int compressionLevel, ArrayDeque<PendingTile> pendingTiles) throws IOException {
+        for (int x = 0; x < level.xTiles; x++) {
+            byte[] tile = level.getTile(x);
+
+            FutureTask<byte[]> data = new FutureTask<>(() -> OzfTileCodec.deflate(tile, compressionLevel));
+
+            pendingTiles.add(new PendingTile(level, level.stripIndex * level.xTiles + x, data));
+
+            executor.execute(data);
+
+            if (pendingTiles.size() > TILES_IN_FLIGHT) {
+                writeTile(pendingTiles.remove());
+            }
+        }
+
+        level.nextStrip();
+    }
+
+    private void writeTile(PendingTile pendingTile) throws IOException {
+        byte[] data;
+
+        try {
+            data = pendingTile.data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IIOException("failed to compress a tile", e.getCause());
+        }
+
+        if (encrypted) {
+            decode(data, 0, Math.min(data.length, OzfImageReader.OZF_ENCRYPTION_DEPTH), key);
+        }
+
+        Level level = pendingTile.level;
+
+        if (level.sink == null) {
+            level.tileOffsetTable[pendingTile.index] = stream.getStreamPosition();
+
+            stream.write(data);
+
+            checkFileSize(stream.getStreamPosition());
+        } else {
+            level.tileOffsetTable[pendingTile.index] = level.sinkSize;
+
+            level.sink.write(data);
+            level.sinkSize += data.length;
+        }
+    }
+
+    private void openSink(Level level) throws IOException {
+        if (ImageIO.getUseCache()) {
+            level.sinkFile = File.createTempFile("imageio-ozf", ".tmp", ImageIO.getCacheDirectory());
+            level.sink = new BufferedOutputStream(new FileOutputStream(level.sinkFile));
+        } else {
+            level.sink = new ByteArrayOutputStream();
+        }
+    }
+
+    /**
+     * Appends tiles of the level to the output and makes their offsets absolute.
+     */
+    private void copySink(Level level) throws IOException {
+        long base = stream.getStreamPosition();
+
+        if (level.sinkFile != null) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(level.sinkFile))) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+
+                while ((n = in.read(buffer)) != -1) {
+                    stream.write(buffer, 0, n);
+                }
+            }
+        } else {
+            stream.write(((ByteArrayOutputStream) level.sink).toByteArray());
+        }
+
+        for (int i = 0; i < level.tileOffsetTable.length; i++) {
+            level.tileOffsetTable[i] += base;
+        }
+
+        checkFileSize(stream.getStreamPosition());
+    }
+
+    private void closeSink(Level level) throws IOException {
+        if (level.sink != null) {
+            level.sink.close();
+        }
+
+        if (level.sinkFile != null) {
+            Files.deleteIfExists(level.sinkFile.toPath());
+        }
+    }
+
+    private void writeLevelHeader(Level level, byte[] palette) throws IOException {
+        writeInt(level.width, encrypted);
+        writeInt(level.height, encrypted);
+        writeShort(level.xTiles, encrypted);
+        writeShort(level.yTiles, encrypted);
+
+        byte[] encryptedPalette = palette.clone();
+
+        if (encrypted) {
+            decode(encryptedPalette, 0, PALETTE_SIZE, key);
+        }
+
+        stream.write(encryptedPalette);
+
+        for (long tileOffset : level.tileOffsetTable) {
+            writeOffset(tileOffset);
+        }
+    }
+
+    private void writeOffset(long offset) throws IOException {
+        checkFileSize(offset);
+
+        writeInt((int) offset, encrypted);
+    }
+
+    /**
+     * Every value of an ozf3 file is encrypted on its own, the key index starts from zero for each of them.
+     */
+    private void writeInt(int value, boolean encrypt) throws IOException {
+        byte[] bytes = {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)};
+
+        if (encrypt) {
+            decode(bytes, 0, bytes.length, key);
+        }
+
+        stream.write(bytes);
+    }
+
+    private void writeShort(int value, boolean encrypt) throws IOException {
+        byte[] bytes = {(byte) value, (byte) (value >> 8)};
+
+        if (encrypt) {
+            decode(bytes, 0, bytes.length, key);
+        }
+
+        stream.write(bytes);
+    }
+
+    private static void checkFileSize(long size) throws IIOException {
+        if (size > MAX_FILE_SIZE) {
+            throw new IIOException("ozf file can't be larger than 4 GB");
+        }
+    }
+}
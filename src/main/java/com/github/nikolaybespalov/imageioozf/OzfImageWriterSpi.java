@@ -0,0 +1,38 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.util.Locale;
+
+public final class OzfImageWriterSpi extends ImageWriterSpi {
+    private static final String description = "OziExplorer Image File Writer";
+    private static final String[] suffixes = {"ozf2", "ozf3"};
+    private static final String[] formatNames = {"OziExplorer Image File"};
+    private static final String[] MIMETypes = {"image/ozf2", "image/ozf3"};
+    private static final String version = "1.0";
+    private static final String writerCN = "com.github.nikolaybespalov.imageioozf.OzfImageWriter";
+    private static final String vendorName = "Nikolay Bespalov";
+    private static final String[] readerSpiNames = {"com.github.nikolaybespalov.imageioozf.OzfImageReaderSpi"};
+
+    public OzfImageWriterSpi() {
+        super(vendorName, version, formatNames, suffixes, MIMETypes, writerCN, new Class[]{ImageOutputStream.class}, readerSpiNames, false, null, null, null, null, false, null, null, null, null);
+    }
+
+    @Override
+    public boolean canEncodeImage(ImageTypeSpecifier type) {
+        // everything is converted to 8 bit palette
+        return type.getSampleModel().getNumBands() <= 4;
+    }
+
+    @Override
+    public ImageWriter createWriterInstance(Object extension) {
+        return new OzfImageWriter(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return description;
+    }
+}
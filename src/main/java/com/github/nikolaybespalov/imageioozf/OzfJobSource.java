@@ -0,0 +1,21 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.io.IOException;
+
+/**
+ * Hands out shards to {@link OzfShardWorker}s and learns how they went.
+ * <p>
+ * Implementations must be thread-safe, several workers may share one source. Every shard taken is reported back
+ * exactly once, either as completed or as failed.
+ */
+public interface OzfJobSource {
+    /**
+     * @return the next shard, or null if there is no more work
+     * @throws IOException if the source can't be reached
+     */
+    OzfShard take() throws IOException;
+
+    void completed(OzfShard shard) throws IOException;
+
+    void failed(OzfShard shard, Throwable cause) throws IOException;
+}
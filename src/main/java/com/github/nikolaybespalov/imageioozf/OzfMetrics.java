@@ -0,0 +1,101 @@
+package com.github.nikolaybespalov.imageioozf;
+
+/**
+ * Receives measurements of {@link OzfImageReader}, see {@link OzfImageReader#setMetrics(OzfMetrics)}.
+ * <p>
+ * Methods are called on the hot path, possibly from many threads at once, so implementations must be thread-safe and
+ * cheap. All methods do nothing by default, implement the ones you need to forward measurements to your metrics
+ * library, or use {@link OzfCounters}.
+ */
+public interface OzfMetrics {
+    /**
+     * Metrics that ignore everything.
+     */
+    OzfMetrics NONE = new OzfMetrics() {
+    };
+
+    /**
+     * Steps of getting a tile.
+     */
+    enum Phase {
+        /**
+         * Seeking and reading the compressed tile.
+         */
+        READ,
+        /**
+         * Decrypting the head of an ozf3 tile.
+         */
+        DECRYPT,
+        /**
+         * Inflating the tile.
+         */
+        INFLATE,
+        /**
+         * Turning the tile upside down.
+         */
+        FLIP,
+        /**
+         * Copying the tile into the image.
+         */
+        COPY
+    }
+
+    /**
+     * @param nanos time spent on reading the header
+     */
+    default void headerRead(long nanos) {
+    }
+
+    /**
+     * @param phase step of getting a tile
+     * @param nanos time spent on the step for one tile
+     */
+    default void tilePhase(Phase phase, long nanos) {
+    }
+
+    /**
+     * @param compressedBytes size of the tile in the file
+     * @param inflatedBytes   size of the inflated tile
+     */
+    default void tileDecoded(int compressedBytes, int inflatedBytes) {
+    }
+
+    /**
+     * A tile was taken from the tile cache.
+     */
+    default void cacheHit() {
+    }
+
+    /**
+     * A tile was not found in the tile cache.
+     */
+    default void cacheMiss() {
+    }
+
+    /**
+     * A tile was not found in the tile cache, but was being loaded by another thread already, so the request waited for
+     * that load instead of loading the tile once more.
+     */
+    default void cacheCoalesced() {
+    }
+
+    /**
+     * @param nanos time a read waited for the memory budget, see {@link OzfAdmissionController}
+     */
+    default void admissionWaited(long nanos) {
+    }
+
+    /**
+     * @param bytes memory of a read rejected by the {@link OzfAdmissionController}
+     */
+    default void admissionRejected(long bytes) {
+    }
+
+    /**
+     * @param width  width of the region passed to {@link OzfImageReader#read(int, javax.imageio.ImageReadParam)}
+     * @param height height of the region
+     * @param tiles  number of tiles the region covers
+     */
+    default void regionRead(int width, int height, int tiles) {
+    }
+}
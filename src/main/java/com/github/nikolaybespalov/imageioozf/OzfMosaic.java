@@ -0,0 +1,289 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageReadParam;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Presents adjacent ozf sheets as one virtual image.
+ * <p>
+ * Every sheet is placed by the pixel offset of its top left corner, the image spans from (0, 0) to the right and
+ * bottom edges of the farthest sheets. Sheets keep their own palettes, so the image is ARGB: areas no sheet covers are
+ * transparent, where sheets overlap the one added last wins. Only the first zoom level of the sheets is used, smaller
+ * images are read with source subsampling, which is passed on to the sheets, so they decode only the tiles that are
+ * sampled and allocate only the sampled pixels.
+ * <p>
+ * A region is read from every sheet it crosses, in parallel on the executor. Sheets are served by an
+ * {@link OzfCatalog}, which keeps only recently touched sheets open and shares the tile cache among them.
+ * <p>
+ * Sheets are added before the mosaic is used, reading is thread-safe.
+ */
+public final class OzfMosaic {
+    public static final int TILE_SIZE = 256;
+    private final OzfCatalog catalog;
+    private final List<Sheet> sheets = new CopyOnWriteArrayList<>();
+    private volatile int width = 0;
+    private volatile int height = 0;
+    private volatile Executor executor = Runnable::run;
+
+    private static final class Sheet {
+        private final String id;
+        private final Rectangle bounds;
+        private final int[] rgbs;
+
+        Sheet(String id, Rectangle bounds, int[] rgbs) {
+            this.id = id;
+            this.bounds = bounds;
+            this.rgbs = rgbs;
+        }
+    }
+
+    /**
+     * @param catalog the catalog to register sheets in and read them through
+     */
+    public OzfMosaic(OzfCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Registers the sheet in the catalog and places it on the mosaic. The header is read to learn the size and the
+     * palette of the sheet, the file is left to the catalog to close.
+     *
+     * @param id   identifier of the sheet in the catalog
+     * @param file ozf file
+     * @param x    x offset of the sheet
+     * @param y    y offset of the sheet
+     * @throws IOException if an error occurs during reading the header
+     */
+    public void add(String id, File file, int x, int y) throws IOException {
+        if (x < 0) {
+            throw new IllegalArgumentException("bad x!");
+        }
+
+        if (y < 0) {
+            throw new IllegalArgumentException("bad y!");
+        }
+
+        catalog.register(id, file);
+
+        Sheet sheet;
+
+        try {
+            sheet = catalog.withReader(id, reader -> {
+                IndexColorModel cm = (IndexColorModel) reader.getImageTypes(0).next().getColorModel();
+
+                int[] rgbs = new int[256];
+
+                cm.getRGBs(rgbs);
+
+                return new Sheet(id, new Rectangle(x, y, reader.getWidth(0), reader.getHeight(0)), rgbs);
+            });
+        } catch (IOException | RuntimeException e) {
+            catalog.unregister(id);
+
+            throw e;
+        }
+
+        if ((long) sheet.bounds.x + sheet.bounds.width > Integer.MAX_VALUE || (long) sheet.bounds.y + sheet.bounds.height > Integer.MAX_VALUE) {
+            catalog.unregister(id);
+
+            throw new IllegalArgumentException("the sheet is out of bounds!");
+        }
+
+        sheets.add(sheet);
+
+        width = Math.max(width, sheet.bounds.x + sheet.bounds.width);
+        height = Math.max(height, sheet.bounds.y + sheet.bounds.height);
+    }
+
+    /**
+     * @param executor executor to read sheets on, the calling thread by default
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor != null ? executor : Runnable::run;
+    }
+
+    public int getNumSheets() {
+        return sheets.size();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getXTiles() {
+        return (width + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    public int getYTiles() {
+        return (height + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * @return identifiers of the sheets the region crosses, in the order they were added
+     */
+    public List<String> getSheets(Rectangle region) {
+        List<String> ids = new ArrayList<>();
+
+        for (Sheet sheet : sheets) {
+            if (sheet.bounds.intersects(region)) {
+                ids.add(sheet.id);
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Reads the tile of the {@link #TILE_SIZE} grid, tiles at the right and bottom edges are cut by the image.
+     *
+     * @param x the column index of the tile
+     * @param y the row index of the tile
+     * @return the tile
+     * @throws IOException if an error occurs during reading
+     */
+    public BufferedImage readTile(int x, int y) throws IOException {
+        if (x < 0 || x >= getXTiles()) {
+            throw new IllegalArgumentException("bad x!");
+        }
+
+        if (y < 0 || y >= getYTiles()) {
+            throw new IllegalArgumentException("bad y!");
+        }
+
+        ImageReadParam param = new ImageReadParam();
+
+        param.setSourceRegion(new Rectangle(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE));
+
+        return read(param);
+    }
+
+    /**
+     * Reads the image or its region. The source region and source subsampling of the param are honored, destination
+     * settings and source bands are not.
+     *
+     * @param param the region and subsampling to read or null to read the whole image
+     * @return the image
+     * @throws IOException if an error occurs during reading
+     */
+    public BufferedImage read(ImageReadParam param) throws IOException {
+        Rectangle region = new Rectangle(0, 0, width, height);
+
+        int xPeriod = 1;
+        int yPeriod = 1;
+        int xOffset = 0;
+        int yOffset = 0;
+
+        if (param != null) {
+            if (param.getSourceRegion() != null) {
+                region = region.intersection(param.getSourceRegion());
+            }
+
+            xPeriod = param.getSourceXSubsampling();
+            yPeriod = param.getSourceYSubsampling();
+            xOffset = param.getSubsamplingXOffset();
+            yOffset = param.getSubsamplingYOffset();
+        }
+
+        int destWidth = (region.width - xOffset + xPeriod - 1) / xPeriod;
+        int destHeight = (region.height - yOffset + yPeriod - 1) / yPeriod;
+
+        if (region.isEmpty() || destWidth <= 0 || destHeight <= 0) {
+            throw new IllegalArgumentException("bad source region!");
+        }
+
+        // the first source pixel of the image
+        int x0 = region.x + xOffset;
+        int y0 = region.y + yOffset;
+
+        BufferedImage image = new BufferedImage(destWidth, destHeight, BufferedImage.TYPE_INT_ARGB);
+
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        ArrayDeque<FutureTask<Raster>> readingSheets = new ArrayDeque<>();
+        ArrayDeque<Sheet> pendingSheets = new ArrayDeque<>();
+        ArrayDeque<Rectangle> pendingParts = new ArrayDeque<>();
+
+        Executor executor = this.executor;
+
+        try {
+            for (Sheet sheet : sheets) {
+                // the part of the image the sheet covers, in destination pixels
+                int dx1 = Math.max(0, ceilDiv(sheet.bounds.x - x0, xPeriod));
+                int dy1 = Math.max(0, ceilDiv(sheet.bounds.y - y0, yPeriod));
+                int dx2 = Math.min(destWidth - 1, Math.floorDiv(sheet.bounds.x + sheet.bounds.width - 1 - x0, xPeriod));
+                int dy2 = Math.min(destHeight - 1, Math.floorDiv(sheet.bounds.y + sheet.bounds.height - 1 - y0, yPeriod));
+
+                if (dx1 > dx2 || dy1 > dy2) {
+                    continue;
+                }
+
+                ImageReadParam sheetParam = new ImageReadParam();
+
+                // starts at a sampled pixel, so the sampling grid of the sheet is the one of the mosaic
+                sheetParam.setSourceRegion(new Rectangle(x0 + dx1 * xPeriod - sheet.bounds.x, y0 + dy1 * yPeriod - sheet.bounds.y,
+                        (dx2 - dx1) * xPeriod + 1, (dy2 - dy1) * yPeriod + 1));
+                sheetParam.setSourceSubsampling(xPeriod, yPeriod, 0, 0);
+
+                FutureTask<Raster> readingSheet = new FutureTask<>(() -> catalog.withReader(sheet.id, reader -> reader.readRaster(0, sheetParam)));
+
+                readingSheets.add(readingSheet);
+                pendingSheets.add(sheet);
+                pendingParts.add(new Rectangle(dx1, dy1, dx2 - dx1 + 1, dy2 - dy1 + 1));
+
+                executor.execute(readingSheet);
+            }
+
+            // painted on the calling thread in the order sheets were added, so overlaps are always resolved the same way
+            while (!readingSheets.isEmpty()) {
+                Raster raster = OzfImageReader.getResult(readingSheets.peek());
+
+                readingSheets.remove();
+
+                paint(raster, pendingSheets.remove().rgbs, pendingParts.remove(), pixels, destWidth);
+            }
+        } finally {
+            for (FutureTask<Raster> readingSheet : readingSheets) {
+                readingSheet.cancel(false);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Copies the raster, which is of the size of the part, into the part of the image.
+     */
+    private static void paint(Raster raster, int[] rgbs, Rectangle part, int[] pixels, int destWidth) {
+        byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+
+        for (int y = 0; y < part.height; y++) {
+            int src = y * part.width;
+            int dest = (part.y + y) * destWidth + part.x;
+
+            for (int x = 0; x < part.width; x++) {
+                pixels[dest + x] = rgbs[data[src + x] & 0xFF];
+            }
+        }
+    }
+
+    private static int ceilDiv(int x, int y) {
+        return -Math.floorDiv(-x, y);
+    }
+}
@@ -0,0 +1,450 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps pixels of an arbitrary image to a palette of at most 256 colors.
+ * <p>
+ * An image that already has a small {@link IndexColorModel} keeps its palette. Otherwise the palette is built from
+ * the colors of the image: as is if there are no more than 256 of them, or by median cut over a 5-5-5 bit histogram.
+ * The image is never read as a whole, only by strips, so it can be larger than the heap.
+ */
+abstract class OzfQuantizer {
+    private static final int MAX_COLORS = 256;
+    private static final int HISTOGRAM_PIXELS = 4 * 1024 * 1024;
+    private static final int STRIP_HEIGHT = 64;
+
+    final RenderedImage image;
+
+    private OzfQuantizer(RenderedImage image) {
+        this.image = image;
+    }
+
+    static OzfQuantizer create(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+
+        if (cm instanceof IndexColorModel && ((IndexColorModel) cm).getMapSize() <= MAX_COLORS &&
+                image.getSampleModel().getNumBands() == 1) {
+            return new Indexed(image, (IndexColorModel) cm);
+        }
+
+        return Rgb.create(image);
+    }
+
+    /**
+     * @return 256 colors in the ozf layout: B, G, R, 0
+     */
+    abstract byte[] getPalette();
+
+    /**
+     * Converts the rows of the image to palette indexes.
+     *
+     * @param y       first row, counted from {@code image.getMinY()}
+     * @param rows    number of rows
+     * @param indexes destination, {@code image.getWidth() * rows} bytes
+     */
+    abstract void toIndexes(int y, int rows, byte[] indexes);
+
+    WritableRaster readRows(int y, int rows) {
+        WritableRaster raster = Raster.createWritableRaster(image.getSampleModel().createCompatibleSampleModel(image.getWidth(), rows), null);
+
+        image.copyData(raster.createWritableTranslatedChild(image.getMinX(), image.getMinY() + y));
+
+        return raster;
+    }
+
+    int[] readRgb(int y, int rows, int[] rgb) {
+        ColorModel cm = image.getColorModel();
+
+        BufferedImage strip = new BufferedImage(cm, readRows(y, rows), cm.isAlphaPremultiplied(), null);
+
+        return strip.getRGB(0, 0, image.getWidth(), rows, rgb, 0, image.getWidth());
+    }
+
+    private static final class Indexed extends OzfQuantizer {
+        private final byte[] palette = new byte[MAX_COLORS * 4];
+
+        Indexed(RenderedImage image, IndexColorModel cm) {
+            super(image);
+
+            for (int i = 0; i < cm.getMapSize(); i++) {
+                palette[i * 4] = (byte) cm.getBlue(i);
+                palette[i * 4 + 1] = (byte) cm.getGreen(i);
+                palette[i * 4 + 2] = (byte) cm.getRed(i);
+            }
+        }
+
+        @Override
+        byte[] getPalette() {
+            return palette;
+        }
+
+        @Override
+        void toIndexes(int y, int rows, byte[] indexes) {
+            int[] samples = readRows(y, rows).getSamples(0, 0, image.getWidth(), rows, 0, (int[]) null);
+
+            for (int i = 0; i < samples.length; i++) {
+                indexes[i] = (byte) samples[i];
+            }
+        }
+    }
+
+    private static final class Rgb extends OzfQuantizer {
+        private final byte[] palette = new byte[MAX_COLORS * 4];
+        /**
+         * Exact colors when there are no more than 256 of them, null otherwise.
+         */
+        private final ColorTable exactColors;
+        /**
+         * Palette index for every 5-5-5 bit color when the palette is approximate.
+         */
+        private final byte[] lookup;
+
+        private Rgb(RenderedImage image, ColorTable exactColors, byte[] lookup) {
+            super(image);
+
+            this.exactColors = exactColors;
+            this.lookup = lookup;
+        }
+
+        static Rgb create(RenderedImage image) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+
+            // only every n-th strip is looked at for a huge image, it is enough to get the colors right
+            long pixelsPerStrip = (long) width * STRIP_HEIGHT;
+            long strips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+            long step = Math.max(1, strips * pixelsPerStrip / HISTOGRAM_PIXELS);
+
+            int[] histogram = new int[1 << 15];
+            ColorTable exactColors = new ColorTable();
+            int[] rgb = null;
+
+            Rgb reader = new Rgb(image, null, null);
+
+            for (long strip = 0; strip < strips; strip += step) {
+                int y = (int) strip * STRIP_HEIGHT;
+                int rows = Math.min(STRIP_HEIGHT, height - y);
+
+                rgb = reader.readRgb(y, rows, rgb);
+
+                for (int i = 0; i < width * rows; i++) {
+                    int color = rgb[i] & 0xFFFFFF;
+
+                    histogram[toBin(color)]++;
+
+                    if (exactColors != null && exactColors.indexOf(color) < 0 && !exactColors.add(color)) {
+                        exactColors = null;
+                    }
+                }
+            }
+
+            if (exactColors != null && step == 1) {
+                Rgb quantizer = new Rgb(image, exactColors, null);
+
+                for (int i = 0; i < exactColors.size(); i++) {
+                    quantizer.setColor(i, exactColors.get(i));
+                }
+
+                return quantizer;
+            }
+
+            List<Box> boxes = medianCut(histogram);
+
+            byte[] lookup = new byte[histogram.length];
+
+            Rgb quantizer = new Rgb(image, null, lookup);
+
+            for (int i = 0; i < boxes.size(); i++) {
+                quantizer.setColor(i, boxes.get(i).averageColor(histogram));
+            }
+
+            for (int bin = 0; bin < lookup.length; bin++) {
+                lookup[bin] = (byte) quantizer.nearestColor(fromBin(bin), boxes.size());
+            }
+
+            return quantizer;
+        }
+
+        @Override
+        byte[] getPalette() {
+            return palette;
+        }
+
+        @Override
+        void toIndexes(int y, int rows, byte[] indexes) {
+            int[] rgb = readRgb(y, rows, null);
+
+            int lastColor = -1;
+            byte lastIndex = 0;
+
+            for (int i = 0; i < rgb.length; i++) {
+                int color = rgb[i] & 0xFFFFFF;
+
+                if (color != lastColor) {
+                    lastColor = color;
+                    lastIndex = exactColors != null ? (byte) Math.max(0, exactColors.indexOf(color)) : lookup[toBin(color)];
+                }
+
+                indexes[i] = lastIndex;
+            }
+        }
+
+        private void setColor(int index, int color) {
+            palette[index * 4] = (byte) color;
+            palette[index * 4 + 1] = (byte) (color >> 8);
+            palette[index * 4 + 2] = (byte) (color >> 16);
+        }
+
+        private int nearestColor(int color, int colors) {
+            int r = (color >> 16) & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = color & 0xFF;
+
+            int nearest = 0;
+            int nearestDistance = Integer.MAX_VALUE;
+
+            for (int i = 0; i < colors; i++) {
+                int dr = r - (palette[i * 4 + 2] & 0xFF);
+                int dg = g - (palette[i * 4 + 1] & 0xFF);
+                int db = b - (palette[i * 4] & 0xFF);
+
+                int distance = dr * dr + dg * dg + db * db;
+
+                if (distance < nearestDistance) {
+                    nearest = i;
+                    nearestDistance = distance;
+                }
+            }
+
+            return nearest;
+        }
+
+        private static List<Box> medianCut(int[] histogram) {
+            List<Box> boxes = new ArrayList<>();
+
+            Box all = new Box(new int[]{0, 0, 0}, new int[]{31, 31, 31});
+
+            all.shrink(histogram);
+
+            boxes.add(all);
+
+            while (boxes.size() < MAX_COLORS) {
+                Box largest = null;
+
+                for (Box box : boxes) {
+                    if (box.canSplit() && (largest == null || box.count > largest.count)) {
+                        largest = box;
+                    }
+                }
+
+                if (largest == null) {
+                    break;
+                }
+
+                boxes.add(largest.split(histogram));
+            }
+
+            return boxes;
+        }
+
+        private static int toBin(int color) {
+            return ((color >> 9) & 0x7C00) | ((color >> 6) & 0x03E0) | ((color >> 3) & 0x001F);
+        }
+
+        private static int fromBin(int bin) {
+            return expand(bin >> 10) << 16 | expand(bin >> 5) << 8 | expand(bin);
+        }
+
+        private static int expand(int value) {
+            value &= 0x1F;
+
+            return (value << 3) | (value >> 2);
+        }
+
+        /**
+         * A box of the 5-5-5 bit color cube, components are in R, G, B order.
+         */
+        private static final class Box {
+            private final int[] min;
+            private final int[] max;
+            private long count;
+
+            Box(int[] min, int[] max) {
+                this.min = min;
+                this.max = max;
+            }
+
+            boolean canSplit() {
+                return max[0] > min[0] || max[1] > min[1] || max[2] > min[2];
+            }
+
+            /**
+             * Splits the box along its longest side at the median, this box keeps the lower half.
+             */
+            Box split(int[] histogram) {
+                int axis = longestAxis();
+
+                long[] planes = new long[32];
+
+                forEachBin(histogram, (bin, c) -> planes[c[axis]] += histogram[bin]);
+
+                long half = count / 2;
+                long sum = 0;
+                int median = min[axis];
+
+                for (int v = min[axis]; v < max[axis]; v++) {
+                    sum += planes[v];
+                    median = v;
+
+                    if (sum >= half) {
+                        break;
+                    }
+                }
+
+                int[] upperMin = min.clone();
+                int[] upperMax = max.clone();
+
+                upperMin[axis] = median + 1;
+                max[axis] = median;
+
+                Box upper = new Box(upperMin, upperMax);
+
+                shrink(histogram);
+                upper.shrink(histogram);
+
+                return upper;
+            }
+
+            private int longestAxis() {
+                int axis = 0;
+
+                for (int i = 1; i < 3; i++) {
+                    if (max[i] - min[i] > max[axis] - min[axis]) {
+                        axis = i;
+                    }
+                }
+
+                return axis;
+            }
+
+            /**
+             * Fits the box to the colors it contains and counts them.
+             */
+            void shrink(int[] histogram) {
+                int[] newMin = {31, 31, 31};
+                int[] newMax = {0, 0, 0};
+
+                count = 0;
+
+                forEachBin(histogram, (bin, c) -> {
+                    if (histogram[bin] != 0) {
+                        count += histogram[bin];
+
+                        for (int i = 0; i < 3; i++) {
+                            newMin[i] = Math.min(newMin[i], c[i]);
+                            newMax[i] = Math.max(newMax[i], c[i]);
+                        }
+                    }
+                });
+
+                if (count != 0) {
+                    System.arraycopy(newMin, 0, min, 0, 3);
+                    System.arraycopy(newMax, 0, max, 0, 3);
+                } else {
+                    System.arraycopy(min, 0, max, 0, 3);
+                }
+            }
+
+            int averageColor(int[] histogram) {
+                long[] sums = new long[3];
+
+                forEachBin(histogram, (bin, c) -> {
+                    for (int i = 0; i < 3; i++) {
+                        sums[i] += (long) expand(c[i]) * histogram[bin];
+                    }
+                });
+
+                if (count == 0) {
+                    return expand(min[0]) << 16 | expand(min[1]) << 8 | expand(min[2]);
+                }
+
+                return (int) (sums[0] / count) << 16 | (int) (sums[1] / count) << 8 | (int) (sums[2] / count);
+            }
+
+            private void forEachBin(int[] histogram, BinVisitor visitor) {
+                int[] c = new int[3];
+
+                for (c[0] = min[0]; c[0] <= max[0]; c[0]++) {
+                    for (c[1] = min[1]; c[1] <= max[1]; c[1]++) {
+                        for (c[2] = min[2]; c[2] <= max[2]; c[2]++) {
+                            visitor.visit(c[0] << 10 | c[1] << 5 | c[2], c);
+                        }
+                    }
+                }
+            }
+        }
+
+        private interface BinVisitor {
+            void visit(int bin, int[] components);
+        }
+    }
+
+    /**
+     * Small open addressing set of colors that remembers the insertion order.
+     */
+    private static final class ColorTable {
+        private final int[] keys = new int[MAX_COLORS * 4];
+        private final int[] values = new int[MAX_COLORS * 4];
+        private final int[] colors = new int[MAX_COLORS];
+        private int size = 0;
+
+        ColorTable() {
+            Arrays.fill(values, -1);
+        }
+
+        int indexOf(int color) {
+            int slot = slot(color);
+
+            return values[slot];
+        }
+
+        /**
+         * @return false if the table is full
+         */
+        boolean add(int color) {
+            if (size == MAX_COLORS) {
+                return false;
+            }
+
+            int slot = slot(color);
+
+            keys[slot] = color;
+            values[slot] = size;
+            colors[size++] = color;
+
+            return true;
+        }
+
+        int get(int index) {
+            return colors[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int slot(int color) {
+            int slot = (color * 0x9E3779B1 >>> 22) & (keys.length - 1);
+
+            while (values[slot] != -1 && keys[slot] != color) {
+                slot = (slot + 1) & (keys.length - 1);
+            }
+
+            return slot;
+        }
+    }
+}
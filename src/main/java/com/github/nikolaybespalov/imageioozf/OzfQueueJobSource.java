@@ -0,0 +1,57 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-process {@link OzfJobSource} backed by a queue, for tests and for running workers in a single JVM.
+ */
+public class OzfQueueJobSource implements OzfJobSource {
+    private final Queue<OzfShard> pending = new ConcurrentLinkedQueue<>();
+    private final List<OzfShard> completed = Collections.synchronizedList(new ArrayList<>());
+    private final Map<OzfShard, Throwable> failed = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public OzfQueueJobSource(Collection<OzfShard> shards) {
+        pending.addAll(shards);
+    }
+
+    public void add(OzfShard shard) {
+        pending.add(shard);
+    }
+
+    @Override
+    public OzfShard take() {
+        return pending.poll();
+    }
+
+    @Override
+    public void completed(OzfShard shard) {
+        completed.add(shard);
+    }
+
+    @Override
+    public void failed(OzfShard shard, Throwable cause) {
+        failed.put(shard, cause);
+    }
+
+    public List<OzfShard> getCompleted() {
+        synchronized (completed) {
+            return new ArrayList<>(completed);
+        }
+    }
+
+    /**
+     * @return failed shards and their causes in order of failure
+     */
+    public Map<OzfShard, Throwable> getFailed() {
+        synchronized (failed) {
+            return new LinkedHashMap<>(failed);
+        }
+    }
+}
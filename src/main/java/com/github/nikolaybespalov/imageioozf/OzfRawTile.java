@@ -0,0 +1,44 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A compressed tile as it is stored in the file.
+ * <p>
+ * The data is a plain zlib stream: ozf3 tiles are already decrypted.
+ */
+public final class OzfRawTile {
+    private final int x;
+    private final int y;
+    private final long offset;
+    private final ByteBuffer data;
+
+    OzfRawTile(int x, int y, long offset, ByteBuffer data) {
+        this.x = x;
+        this.y = y;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return position of the tile in the file
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return compressed tile data, positioned at the first byte of the zlib stream
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+import static com.github.nikolaybespalov.imageioozf.OzfDecoder.decode;
+
+/**
+ * Iterates over compressed tiles of a zoom level in file order.
+ * <p>
+ * Neighbouring tiles are read with a single large read, every tile is a slice of that chunk. Every chunk is a new array
+ * that is never written again, so slices stay valid after later calls of {@link #next()}; keeping a slice keeps its
+ * whole chunk in memory.
+ */
+class OzfRawTileIterator implements Iterator<OzfRawTile> {
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final ImageInputStream stream;
+    private final int[] tileOffsetTable;
+    private final int xTiles;
+    private final boolean encrypted;
+    private final byte key;
+    private final int chunkSize;
+    private final Integer[] order;
+    private int next = 0;
+    private ByteBuffer chunk;
+    private long chunkOffset;
+
+    OzfRawTileIterator(ImageInputStream stream, int[] tileOffsetTable, int xTiles, boolean encrypted, byte key, int chunkSize) {
+        // the last entry of the table points to the end of the tile data
+        this(stream, tileOffsetTable, xTiles, encrypted, key, chunkSize, IntStream.range(0, tileOffsetTable.length - 1).toArray());
+    }
+
+    /**
+     * @param tiles indexes of the tiles to iterate over
+     */
+    OzfRawTileIterator(ImageInputStream stream, int[] tileOffsetTable, int xTiles, boolean encrypted, byte key, int chunkSize, int[] tiles) {
+        this.stream = stream;
+        this.tileOffsetTable = tileOffsetTable;
+        this.xTiles = xTiles;
+        this.encrypted = encrypted;
+        this.key = key;
+        this.chunkSize = chunkSize;
+        this.order = IntStream.of(tiles).boxed().toArray(Integer[]::new);
+
+        Arrays.sort(order, Comparator.comparingLong(this::getTileOffset));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next < order.length;
+    }
+
+    @Override
+    public OzfRawTile next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        int i = order[next++];
+
+        long tileOffset = getTileOffset(i);
+        long tileEnd = getTileOffset(i + 1);
+
+        if (tileEnd < tileOffset || tileEnd - tileOffset > Integer.MAX_VALUE) {
+            throw new UncheckedIOException(new IOException("bad tile offset!"));
+        }
+
+        try {
+            if (chunk == null || tileOffset < chunkOffset || tileEnd > chunkOffset + chunk.capacity()) {
+                readChunk(tileOffset, tileEnd);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        chunk.limit((int) (tileEnd - chunkOffset));
+        chunk.position((int) (tileOffset - chunkOffset));
+
+        ByteBuffer tile = chunk.slice();
+
+        if (encrypted) {
+            ByteBuffer encryptedPart = tile.duplicate();
+            encryptedPart.limit(Math.min(tile.remaining(), OzfImageReader.OZF_ENCRYPTION_DEPTH));
+            decode(encryptedPart, key);
+        }
+
+        return new OzfRawTile(i % xTiles, i / xTiles, tileOffset, tile);
+    }
+
+    /**
+     * Reads as many consecutive (in file order) tiles as fit into the chunk, but at least the requested one.
+     */
+    private void readChunk(long tileOffset, long tileEnd) throws IOException {
+        long end = tileEnd;
+
+        for (int j = next; j < order.length; j++) {
+            long nextTileEnd = getTileOffset(order[j] + 1);
+
+            if (nextTileEnd - tileOffset > chunkSize) {
+                break;
+            }
+
+            end = Math.max(end, nextTileEnd);
+        }
+
+        byte[] bytes = new byte[(int) (end - tileOffset)];
+
+        stream.seek(tileOffset);
+        stream.readFully(bytes);
+
+        chunk = ByteBuffer.wrap(bytes);
+        chunkOffset = tileOffset;
+    }
+
+    /**
+     * Offsets are unsigned, so files up to 4 GB are fine.
+     */
+    private long getTileOffset(int i) {
+        return Integer.toUnsignedLong(tileOffsetTable[i]);
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A piece of work for {@link OzfShardWorker}: a rectangle of tiles of a zoom level of an ozf file.
+ * <p>
+ * The rectangle is in 64x64 ozf tiles, not pixels, so shards always align with tile boundaries and disjoint shards
+ * never decode the same tile.
+ */
+public final class OzfShard {
+    private final File file;
+    private final int imageIndex;
+    private final Rectangle tiles;
+
+    public OzfShard(File file, int imageIndex, Rectangle tiles) {
+        if (file == null) {
+            throw new IllegalArgumentException("file == null!");
+        }
+
+        if (imageIndex < 0) {
+            throw new IllegalArgumentException("bad imageIndex!");
+        }
+
+        if (tiles.x < 0 || tiles.y < 0 || tiles.isEmpty()) {
+            throw new IllegalArgumentException("bad tiles!");
+        }
+
+        this.file = file;
+        this.imageIndex = imageIndex;
+        this.tiles = new Rectangle(tiles);
+    }
+
+    /**
+     * Splits the tile grid of a zoom level into shards of at most {@code shardWidth x shardHeight} tiles.
+     *
+     * @param file        the ozf file
+     * @param imageIndex  the index of the zoom level
+     * @param xTiles      number of tile columns of the zoom level
+     * @param yTiles      number of tile rows of the zoom level
+     * @param shardWidth  maximum number of tile columns of a shard
+     * @param shardHeight maximum number of tile rows of a shard
+     * @return shards covering every tile exactly once, row by row
+     */
+    public static List<OzfShard> split(File file, int imageIndex, int xTiles, int yTiles, int shardWidth, int shardHeight) {
+        if (shardWidth < 1 || shardHeight < 1) {
+            throw new IllegalArgumentException("bad shard size!");
+        }
+
+        List<OzfShard> shards = new ArrayList<>();
+
+        for (int y = 0; y < yTiles; y += shardHeight) {
+            for (int x = 0; x < xTiles; x += shardWidth) {
+                shards.add(new OzfShard(file, imageIndex, new Rectangle(x, y, Math.min(shardWidth, xTiles - x), Math.min(shardHeight, yTiles - y))));
+            }
+        }
+
+        return shards;
+    }
+
+    /**
+     * Parses a shard written by {@link #toString()}.
+     */
+    public static OzfShard parse(String s) {
+        String[] parts = s.trim().split("\t");
+
+        if (parts.length != 6) {
+            throw new IllegalArgumentException("bad shard " + s + "!");
+        }
+
+        try {
+            return new OzfShard(new File(parts[0]), Integer.parseInt(parts[1]), new Rectangle(Integer.parseInt(parts[2]),
+                    Integer.parseInt(parts[3]), Integer.parseInt(parts[4]), Integer.parseInt(parts[5])));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad shard " + s + "!", e);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getImageIndex() {
+        return imageIndex;
+    }
+
+    /**
+     * @return the rectangle of tiles
+     */
+    public Rectangle getTiles() {
+        return new Rectangle(tiles);
+    }
+
+    /**
+     * @return number of tiles of the shard
+     */
+    public int getNumTiles() {
+        return tiles.width * tiles.height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof OzfShard)) {
+            return false;
+        }
+
+        OzfShard shard = (OzfShard) o;
+
+        return imageIndex == shard.imageIndex && file.equals(shard.file) && tiles.equals(shard.tiles);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(file, imageIndex, tiles);
+    }
+
+    /**
+     * @return tab separated file, image index, x, y, width and height, see {@link #parse(String)}
+     */
+    @Override
+    public String toString() {
+        return file.getPath() + "\t" + imageIndex + "\t" + tiles.x + "\t" + tiles.y + "\t" + tiles.width + "\t" + tiles.height;
+    }
+}
@@ -0,0 +1,281 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes shards handed out by an {@link OzfJobSource} until there is no more work.
+ * <p>
+ * Every shard is read with {@link OzfImageReader#readTiles(int, java.awt.Rectangle, Executor, int, OzfTileConsumer)},
+ * so its tiles are read in file order and inflated in parallel. Consecutive shards of the same file share a reader, so
+ * the header is read once. A shard that fails is reported to the job source and the worker goes on with the next one;
+ * only a failing job source stops the worker.
+ */
+public class OzfShardWorker {
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private final OzfJobSource jobSource;
+    private final TileHandler tileHandler;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ProgressListener progressListener;
+
+    /**
+     * Receives decoded tiles, called on the worker thread in file order within a shard.
+     */
+    @FunctionalInterface
+    public interface TileHandler {
+        /**
+         * @param shard the shard the tile belongs to
+         * @param x     the column index of the tile in the zoom level
+         * @param y     the row index of the tile in the zoom level
+         * @param tile  64x64 palette indexes, top line first; the array belongs to the handler
+         * @throws IOException to fail the shard
+         */
+        void accept(OzfShard shard, int x, int y, byte[] tile) throws IOException;
+    }
+
+    /**
+     * Receives progress of the worker, called on the worker thread after every shard, but not more often than once a
+     * second.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(Statistics statistics);
+    }
+
+    /**
+     * Throughput and failures of a worker.
+     */
+    public static final class Statistics {
+        private final long shards;
+        private final long shardsFailed;
+        private final long tiles;
+        private final long elapsedNanos;
+
+        Statistics(long shards, long shardsFailed, long tiles, long elapsedNanos) {
+            this.shards = shards;
+            this.shardsFailed = shardsFailed;
+            this.tiles = tiles;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of shards completed
+         */
+        public long getShards() {
+            return shards;
+        }
+
+        public long getShardsFailed() {
+            return shardsFailed;
+        }
+
+        /**
+         * @return number of tiles decoded, including those of failed shards
+         */
+        public long getTiles() {
+            return tiles;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getTilesPerSecond() {
+            return elapsedNanos == 0 ? 0 : tiles * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d shards, %d failed, %d tiles, %.1f tiles/s, %.1f s",
+                    shards, shardsFailed, tiles, getTilesPerSecond(), elapsedNanos / 1e9);
+        }
+    }
+
+    public OzfShardWorker(OzfJobSource jobSource, TileHandler tileHandler) {
+        this.jobSource = jobSource;
+        this.tileHandler = tileHandler;
+    }
+
+    /**
+     * @param threads number of threads inflating tiles, 1 to inflate them on the worker thread
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive!");
+        }
+
+        this.threads = threads;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Takes and decodes shards until the job source runs out of them or the thread is interrupted.
+     *
+     * @return statistics of the work done
+     * @throws IOException if the job source fails
+     */
+    public Statistics run() throws IOException {
+        long start = System.nanoTime();
+        long lastProgress = start;
+
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        Executor executor = pool != null ? pool : Runnable::run;
+
+        long shards = 0;
+        long shardsFailed = 0;
+        long[] tiles = {0};
+
+        File file = null;
+        ImageInputStream stream = null;
+        OzfImageReader reader = null;
+
+        try {
+            OzfShard shard;
+
+            while (!Thread.currentThread().isInterrupted() && (shard = jobSource.take()) != null) {
+                try {
+                    if (!shard.getFile().equals(file)) {
+                        close(stream);
+
+                        file = null;
+                        stream = new FileImageInputStream(shard.getFile());
+                        reader = new OzfImageReader(null);
+                        reader.setInput(stream);
+                        reader.setSourceName(shard.getFile().getPath());
+                        file = shard.getFile();
+                    }
+
+                    OzfShard currentShard = shard;
+
+                    reader.readTiles(shard.getImageIndex(), shard.getTiles(), executor, 4 * threads, (x, y, tile) -> {
+                        tiles[0]++;
+
+                        tileHandler.accept(currentShard, x, y, tile);
+                    });
+                } catch (IOException | RuntimeException e) {
+                    shardsFailed++;
+
+                    // the reader may be broken, start over with the next shard
+                    close(stream);
+
+                    file = null;
+                    stream = null;
+
+                    jobSource.failed(shard, e);
+
+                    continue;
+                }
+
+                shards++;
+
+                jobSource.completed(shard);
+
+                long now = System.nanoTime();
+
+                if (progressListener != null && now - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = now;
+
+                    progressListener.progress(new Statistics(shards, shardsFailed, tiles[0], now - start));
+                }
+            }
+        } finally {
+            close(stream);
+
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        return new Statistics(shards, shardsFailed, tiles[0], System.nanoTime() - start);
+    }
+
+    private static void close(ImageInputStream stream) {
+        if (stream == null) {
+            return;
+        }
+
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * {@code OzfShardWorker [--threads N] [--submit input.ozf2 --shard-size N] queue-directory}
+     * <p>
+     * Submits all zoom levels of the input split into shards of {@code N x N} tiles (16 by default), if asked, then
+     * decodes shards of the queue directory and reports throughput. Decoded tiles are discarded.
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> directories = new ArrayList<>();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        String submit = null;
+        int shardSize = 16;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--submit":
+                        submit = args[++i];
+                        break;
+                    case "--shard-size":
+                        shardSize = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        directories.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            directories.clear();
+        }
+
+        if (directories.size() != 1) {
+            System.err.println("usage: OzfShardWorker [--threads N] [--submit input.ozf2 --shard-size N] queue-directory");
+            System.exit(1);
+        }
+
+        OzfDirectoryJobSource jobSource = new OzfDirectoryJobSource(Paths.get(directories.get(0)));
+
+        if (submit != null) {
+            File input = new File(submit);
+
+            try (ImageInputStream is = new FileImageInputStream(input)) {
+                OzfImageReader reader = new OzfImageReader(null);
+
+                reader.setInput(is);
+
+                for (int i = 0; i < reader.getNumImages(false); i++) {
+                    OzfImageMetadata metadata = (OzfImageMetadata) reader.getImageMetadata(i);
+
+                    jobSource.submit(OzfShard.split(input, i, metadata.getXTiles(), metadata.getYTiles(), shardSize, shardSize));
+                }
+            }
+        }
+
+        OzfShardWorker worker = new OzfShardWorker(jobSource, (shard, x, y, tile) -> {
+        });
+
+        worker.setThreads(threads);
+        worker.setProgressListener(statistics -> System.err.println(statistics));
+
+        System.err.println(worker.run());
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+
+/**
+ * Structure of an ozf file: its version and the sizes and tile grids of all zoom levels and thumbnails.
+ * <p>
+ * Enough to plan reading without decoding anything, see {@link OzfStreamMetadataFormat} for the tree. Read-only.
+ */
+public final class OzfStreamMetadata extends IIOMetadata {
+    private final String version;
+    private final int[][] zoomLevels;
+    private final int[][] thumbnails;
+
+    /**
+     * @param version    ozf2, ozf3 or ozf4
+     * @param zoomLevels width, height, xTiles and yTiles of every zoom level
+     * @param thumbnails width and height of every thumbnail
+     */
+    OzfStreamMetadata(String version, int[][] zoomLevels, int[][] thumbnails) {
+        super(false, OzfStreamMetadataFormat.NATIVE_FORMAT_NAME, OzfStreamMetadataFormat.class.getName(), null, null);
+
+        this.version = version;
+        this.zoomLevels = zoomLevels;
+        this.thumbnails = thumbnails;
+    }
+
+    /**
+     * @return ozf2, ozf3 or ozf4
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public int getNumZoomLevels() {
+        return zoomLevels.length;
+    }
+
+    public int getWidth(int imageIndex) {
+        return zoomLevels[imageIndex][0];
+    }
+
+    public int getHeight(int imageIndex) {
+        return zoomLevels[imageIndex][1];
+    }
+
+    public int getXTiles(int imageIndex) {
+        return zoomLevels[imageIndex][2];
+    }
+
+    public int getYTiles(int imageIndex) {
+        return zoomLevels[imageIndex][3];
+    }
+
+    public int getNumThumbnails() {
+        return thumbnails.length;
+    }
+
+    public int getThumbnailWidth(int thumbnailIndex) {
+        return thumbnails[thumbnailIndex][0];
+    }
+
+    public int getThumbnailHeight(int thumbnailIndex) {
+        return thumbnails[thumbnailIndex][1];
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public Node getAsTree(String formatName) {
+        if (!nativeMetadataFormatName.equals(formatName)) {
+            throw new IllegalArgumentException("unsupported format " + formatName + "!");
+        }
+
+        IIOMetadataNode root = new IIOMetadataNode(nativeMetadataFormatName);
+
+        root.setAttribute("version", version);
+
+        IIOMetadataNode zoomLevelsNode = new IIOMetadataNode("ZoomLevels");
+
+        for (int i = 0; i < zoomLevels.length; i++) {
+            IIOMetadataNode zoomLevelNode = new IIOMetadataNode("ZoomLevel");
+
+            zoomLevelNode.setAttribute("index", Integer.toString(i));
+            zoomLevelNode.setAttribute("width", Integer.toString(getWidth(i)));
+            zoomLevelNode.setAttribute("height", Integer.toString(getHeight(i)));
+            zoomLevelNode.setAttribute("xTiles", Integer.toString(getXTiles(i)));
+            zoomLevelNode.setAttribute("yTiles", Integer.toString(getYTiles(i)));
+
+            zoomLevelsNode.appendChild(zoomLevelNode);
+        }
+
+        root.appendChild(zoomLevelsNode);
+
+        IIOMetadataNode thumbnailsNode = new IIOMetadataNode("Thumbnails");
+
+        for (int i = 0; i < thumbnails.length; i++) {
+            IIOMetadataNode thumbnailNode = new IIOMetadataNode("Thumbnail");
+
+            thumbnailNode.setAttribute("index", Integer.toString(i));
+            thumbnailNode.setAttribute("width", Integer.toString(getThumbnailWidth(i)));
+            thumbnailNode.setAttribute("height", Integer.toString(getThumbnailHeight(i)));
+
+            thumbnailsNode.appendChild(thumbnailNode);
+        }
+
+        root.appendChild(thumbnailsNode);
+
+        return root;
+    }
+
+    @Override
+    public void mergeTree(String formatName, Node root) {
+        throw new IllegalStateException("metadata is read-only!");
+    }
+
+    @Override
+    public void reset() {
+        throw new IllegalStateException("metadata is read-only!");
+    }
+}
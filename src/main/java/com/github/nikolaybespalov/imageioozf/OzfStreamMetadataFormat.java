@@ -0,0 +1,53 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadataFormat;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import java.util.Arrays;
+
+/**
+ * Native stream metadata format, see {@link OzfStreamMetadata}.
+ * <pre>
+ * &lt;com_github_nikolaybespalov_imageioozf_stream_1.0 version="ozf2|ozf3|ozf4"&gt;
+ *   &lt;ZoomLevels&gt;
+ *     &lt;ZoomLevel index width height xTiles yTiles/&gt;*
+ *   &lt;/ZoomLevels&gt;
+ *   &lt;Thumbnails&gt;
+ *     &lt;Thumbnail index width height/&gt;*
+ *   &lt;/Thumbnails&gt;
+ * &lt;/com_github_nikolaybespalov_imageioozf_stream_1.0&gt;
+ * </pre>
+ */
+public final class OzfStreamMetadataFormat extends IIOMetadataFormatImpl {
+    public static final String NATIVE_FORMAT_NAME = "com_github_nikolaybespalov_imageioozf_stream_1.0";
+    private static final OzfStreamMetadataFormat instance = new OzfStreamMetadataFormat();
+
+    private OzfStreamMetadataFormat() {
+        super(NATIVE_FORMAT_NAME, CHILD_POLICY_ALL);
+
+        addAttribute(NATIVE_FORMAT_NAME, "version", DATATYPE_STRING, true, null, Arrays.asList("ozf2", "ozf3", "ozf4"));
+
+        addElement("ZoomLevels", NATIVE_FORMAT_NAME, 0, Integer.MAX_VALUE);
+        addElement("ZoomLevel", "ZoomLevels", CHILD_POLICY_EMPTY);
+        addAttribute("ZoomLevel", "index", DATATYPE_INTEGER, true, null, "0", null, true, false);
+        addAttribute("ZoomLevel", "width", DATATYPE_INTEGER, true, null, "1", null, true, false);
+        addAttribute("ZoomLevel", "height", DATATYPE_INTEGER, true, null, "1", null, true, false);
+        addAttribute("ZoomLevel", "xTiles", DATATYPE_INTEGER, true, null, "1", "65535", true, true);
+        addAttribute("ZoomLevel", "yTiles", DATATYPE_INTEGER, true, null, "1", "65535", true, true);
+
+        addElement("Thumbnails", NATIVE_FORMAT_NAME, 0, Integer.MAX_VALUE);
+        addElement("Thumbnail", "Thumbnails", CHILD_POLICY_EMPTY);
+        addAttribute("Thumbnail", "index", DATATYPE_INTEGER, true, null, "0", null, true, false);
+        addAttribute("Thumbnail", "width", DATATYPE_INTEGER, true, null, "1", null, true, false);
+        addAttribute("Thumbnail", "height", DATATYPE_INTEGER, true, null, "1", null, true, false);
+    }
+
+    public static IIOMetadataFormat getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean canNodeAppear(String elementName, ImageTypeSpecifier imageType) {
+        return true;
+    }
+}
@@ -0,0 +1,340 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decoded tiles shared by any number of readers, see {@link OzfImageReader#setTileCache(OzfTileCache, Object)}.
+ * <p>
+ * The cache is split into segments, each of them is a separate LRU list with its own lock and an equal share of the
+ * memory limit, so threads working with different tiles rarely wait for each other.
+ * <p>
+ * Readers load missing tiles through the cache, so concurrent requests for the same missing tile share a single load:
+ * the first one reads and inflates the tile, the others wait for it and are counted as coalesced.
+ */
+public final class OzfTileCache {
+    private static final int SEGMENTS = 16;
+    /**
+     * Rough size of a cache entry without the tile itself.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Loads a missing tile.
+     */
+    @FunctionalInterface
+    interface TileLoader {
+        byte[] load() throws IOException;
+    }
+
+    private static final class Key {
+        private final Object source;
+        private final int level;
+        private final int x;
+        private final int y;
+
+        Key(Object source, int level, int x, int y) {
+            this.source = source;
+            this.level = level;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            return level == key.level && x == key.x && y == key.y && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = source.hashCode();
+
+            result = 31 * result + level;
+            result = 31 * result + x;
+            result = 31 * result + y;
+
+            return result;
+        }
+    }
+
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<Key, byte[]> tiles = new LinkedHashMap<>(64, 0.75F, true);
+        private final Map<Key, FutureTask<byte[]>> loading = new HashMap<>();
+        private final long maxSize;
+        private long size = 0;
+
+        Segment(long maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    /**
+     * @param maxSize memory limit in bytes
+     */
+    public OzfTileCache(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize is negative!");
+        }
+
+        this.maxSize = maxSize;
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxSize / SEGMENTS);
+        }
+    }
+
+    /**
+     * @return the tile or null; the array must not be changed
+     */
+    byte[] get(Object source, int level, int x, int y) {
+        Key key = new Key(source, level, x, y);
+
+        Segment segment = segmentFor(key);
+
+        byte[] tile;
+
+        segment.lock.lock();
+
+        try {
+            tile = segment.tiles.get(key);
+        } finally {
+            segment.lock.unlock();
+        }
+
+        if (tile != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+
+        return tile;
+    }
+
+    /**
+     * Returns the tile from the cache, or loads and caches it if it is missing.
+     * <p>
+     * If the tile is being loaded by another thread already, waits for that load instead of starting one more. A
+     * failure of the load is rethrown to every thread waiting for it, nothing is cached then.
+     *
+     * @param metrics receiver of the outcome: a hit, a miss or a coalesced request
+     * @param loader  loads the tile, called on the calling thread, at most once at a time for every tile
+     * @return the tile; the array must not be changed
+     * @throws IOException if the load fails
+     */
+    byte[] get(Object source, int level, int x, int y, OzfMetrics metrics, TileLoader loader) throws IOException {
+        Key key = new Key(source, level, x, y);
+
+        Segment segment = segmentFor(key);
+
+        FutureTask<byte[]> load;
+        boolean loading = false;
+
+        segment.lock.lock();
+
+        try {
+            byte[] tile = segment.tiles.get(key);
+
+            if (tile != null) {
+                hits.increment();
+                metrics.cacheHit();
+
+                return tile;
+            }
+
+            load = segment.loading.get(key);
+
+            if (load == null) {
+                load = new FutureTask<>(loader::load);
+
+                segment.loading.put(key, load);
+
+                loading = true;
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+
+        if (!loading) {
+            coalesced.increment();
+            metrics.cacheCoalesced();
+
+            return OzfImageReader.getResult(load);
+        }
+
+        misses.increment();
+        metrics.cacheMiss();
+
+        try {
+            load.run();
+
+            byte[] tile = OzfImageReader.getResult(load);
+
+            // cached before the load is forgotten, so that nobody starts another load in between
+            put(source, level, x, y, tile);
+
+            return tile;
+        } finally {
+            segment.lock.lock();
+
+            try {
+                segment.loading.remove(key);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param tile the tile, the array must not be changed afterwards
+     */
+    void put(Object source, int level, int x, int y, byte[] tile) {
+        Key key = new Key(source, level, x, y);
+
+        Segment segment = segmentFor(key);
+
+        long tileSize = sizeOf(tile);
+
+        if (tileSize > segment.maxSize) {
+            return;
+        }
+
+        segment.lock.lock();
+
+        try {
+            byte[] previous = segment.tiles.put(key, tile);
+
+            if (previous != null) {
+                segment.size -= sizeOf(previous);
+            }
+
+            segment.size += tileSize;
+
+            Iterator<Map.Entry<Key, byte[]>> it = segment.tiles.entrySet().iterator();
+
+            while (segment.size > segment.maxSize && it.hasNext()) {
+                segment.size -= sizeOf(it.next().getValue());
+
+                it.remove();
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all tiles of the source. Tiles being loaded for it at the moment are put afterwards, so the source must
+     * not be read during the call.
+     *
+     * @param source the source passed to {@link OzfImageReader#setTileCache(OzfTileCache, Object)}
+     */
+    public void invalidate(Object source) {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+
+            try {
+                Iterator<Map.Entry<Key, byte[]>> it = segment.tiles.entrySet().iterator();
+
+                while (it.hasNext()) {
+                    Map.Entry<Key, byte[]> tile = it.next();
+
+                    if (tile.getKey().source.equals(source)) {
+                        segment.size -= sizeOf(tile.getValue());
+
+                        it.remove();
+                    }
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Removes all tiles.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+
+            try {
+                segment.tiles.clear();
+                segment.size = 0;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return memory limit in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return memory taken by the tiles in bytes
+     */
+    public long getSize() {
+        long size = 0;
+
+        for (Segment segment : segments) {
+            segment.lock.lock();
+
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of requests that waited for a load of the same tile by another thread instead of loading it
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.hashCode();
+
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static long sizeOf(byte[] tile) {
+        return tile.length + ENTRY_OVERHEAD;
+    }
+}
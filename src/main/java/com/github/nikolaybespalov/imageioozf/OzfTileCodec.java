@@ -0,0 +1,163 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Turns compressed tile data into pixels and back.
+ * <p>
+ * Stateless apart from small pools of {@link Inflater}s and {@link Deflater}s, so it can be used from any number of
+ * threads at once. Pools rather than thread locals, because virtual threads live for a single request: a zlib stream per
+ * thread would be created every time and its native memory kept until finalization.
+ */
+final class OzfTileCodec {
+    static final int TILE_WIDTH = 64;
+    static final int TILE_HEIGHT = 64;
+    static final int TILE_SIZE = TILE_WIDTH * TILE_HEIGHT;
+
+    private static final int POOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private OzfTileCodec() {
+    }
+
+    /**
+     * Inflates the tile and flips it, so the first line of the result is the top line of the tile.
+     *
+     * @param compressed zlib stream, the buffer position is not changed
+     * @return 64x64 palette indexes
+     * @throws IOException if the data is not a valid tile
+     */
+    static byte[] inflate(ByteBuffer compressed) throws IOException {
+        byte[] tile = new byte[TILE_SIZE];
+
+        inflate(compressed, tile);
+
+        return tile;
+    }
+
+    static void inflate(ByteBuffer compressed, byte[] tile) throws IOException {
+        inflateUnflipped(compressed, tile);
+
+        flip(tile);
+    }
+
+    /**
+     * Inflates the tile as it is stored, the bottom line first.
+     */
+    static void inflateUnflipped(ByteBuffer compressed, byte[] tile) throws IOException {
+        Inflater inf = inflaters.poll();
+
+        if (inf == null) {
+            inf = new Inflater();
+        }
+
+        try {
+            inflateUnflipped(inf, compressed, tile);
+        } finally {
+            inf.reset();
+
+            // streams beyond the pool are freed at once
+            if (!inflaters.offer(inf)) {
+                inf.end();
+            }
+        }
+    }
+
+    private static void inflateUnflipped(Inflater inf, ByteBuffer compressed, byte[] tile) throws IOException {
+        if (compressed.hasArray()) {
+            inf.setInput(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining());
+        } else {
+            byte[] bytes = new byte[compressed.remaining()];
+            compressed.duplicate().get(bytes);
+            inf.setInput(bytes);
+        }
+
+        int n = 0;
+
+        try {
+            while (n < TILE_SIZE) {
+                int inflated = inf.inflate(tile, n, TILE_SIZE - n);
+
+                if (inflated == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+
+        if (n != TILE_SIZE) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+    }
+
+    /**
+     * Flips the tile (the file stores the bottom line first) and compresses it.
+     *
+     * @param tile  64x64 palette indexes, top line first; the array is not changed
+     * @param level compression level, see {@link Deflater#setLevel(int)}
+     * @return zlib stream
+     */
+    static byte[] deflate(byte[] tile, int level) {
+        byte[] flipped = tile.clone();
+
+        flip(flipped);
+
+        Deflater def = deflaters.poll();
+
+        if (def == null) {
+            def = new Deflater();
+        }
+
+        try {
+            def.setLevel(level);
+            def.setInput(flipped);
+            def.finish();
+
+            byte[] compressed = new byte[TILE_SIZE + 64];
+            int n = 0;
+
+            while (!def.finished()) {
+                if (n == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+
+                n += def.deflate(compressed, n, compressed.length - n);
+            }
+
+            return Arrays.copyOf(compressed, n);
+        } finally {
+            def.reset();
+
+            if (!deflaters.offer(def)) {
+                def.end();
+            }
+        }
+    }
+
+    static void flip(byte[] tile) {
+        byte[] temp = new byte[TILE_WIDTH];
+
+        for (int lineIndex = 0; lineIndex < TILE_HEIGHT / 2; lineIndex++) {
+            int topPosition = lineIndex * TILE_WIDTH;
+            int downPosition = (TILE_HEIGHT - 1 - lineIndex) * TILE_WIDTH;
+
+            System.arraycopy(tile, topPosition, temp, 0, TILE_WIDTH);
+
+            System.arraycopy(tile, downPosition, tile, topPosition, TILE_WIDTH);
+
+            System.arraycopy(temp, 0, tile, downPosition, TILE_WIDTH);
+        }
+    }
+}
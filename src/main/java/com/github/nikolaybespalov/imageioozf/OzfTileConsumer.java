@@ -0,0 +1,17 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.io.IOException;
+
+/**
+ * Receives decoded tiles from {@link OzfImageReader#readTiles}.
+ */
+@FunctionalInterface
+public interface OzfTileConsumer {
+    /**
+     * @param x    the column index of the tile
+     * @param y    the row index of the tile
+     * @param tile 64x64 palette indexes, top line first; the array belongs to the consumer
+     * @throws IOException to stop reading
+     */
+    void accept(int x, int y, byte[] tile) throws IOException;
+}
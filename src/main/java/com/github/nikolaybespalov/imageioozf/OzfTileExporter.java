@@ -0,0 +1,636 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Cuts an ozf file into 256x256 PNG tiles of the XYZ or TMS layout.
+ * <p>
+ * The pyramid is built in pixel space: at the smallest zoom the whole image fits in (the default maximum zoom) one tile
+ * pixel is one pixel of the image, every lower zoom halves the image, every higher one doubles it. An explicit maximum
+ * zoom only cuts the pyramid short or extends it, it does not move the image. The image is placed at the top left corner of the
+ * tile grid, only tiles that touch the image are written. Every output tile is read from the smallest ozf zoom level
+ * that is still not smaller than the output, so only the ozf tiles covered by the output tile are decoded. Output tiles
+ * are rendered in parallel, every thread has its own reader, decoded ozf tiles are shared by all of them through an
+ * {@link OzfTileCache}, so neighbouring output tiles do not decode the same ozf tile twice.
+ * <p>
+ * The output is a directory with {@code z/x/y.png} files, or a zip archive with the same entries if the output name
+ * ends with {@code .zip}.
+ * <p>
+ * With an {@link OzfTileIndex} set, uniform ozf tiles are not decoded at all, and output tiles made only of ozf tiles
+ * filled with the empty palette index are not written.
+ */
+public class OzfTileExporter {
+    public static final int TILE_SIZE = 256;
+    private static final long DEFAULT_CACHE_SIZE = 256L * 1024 * 1024;
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private final File input;
+    private boolean tms = false;
+    private int minZoom = 0;
+    private int maxZoom = -1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private OzfTileCache tileCache;
+    private OzfTileIndex tileIndex;
+    private int emptyIndex = -1;
+    private ProgressListener progressListener;
+
+    /**
+     * Receives progress of the export, may be called from any thread but never concurrently.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void progress(Statistics statistics);
+    }
+
+    /**
+     * Progress and throughput of an export.
+     */
+    public static final class Statistics {
+        private final long tiles;
+        private final long tilesWritten;
+        private final long tilesSkipped;
+        private final long bytesWritten;
+        private final long elapsedNanos;
+        private final long cacheHits;
+        private final long cacheMisses;
+
+        Statistics(long tiles, long tilesWritten, long tilesSkipped, long bytesWritten, long elapsedNanos, long cacheHits, long cacheMisses) {
+            this.tiles = tiles;
+            this.tilesWritten = tilesWritten;
+            this.tilesSkipped = tilesSkipped;
+            this.bytesWritten = bytesWritten;
+            this.elapsedNanos = elapsedNanos;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+        }
+
+        /**
+         * @return number of tiles of the whole export
+         */
+        public long getTiles() {
+            return tiles;
+        }
+
+        public long getTilesWritten() {
+            return tilesWritten;
+        }
+
+        /**
+         * @return number of empty tiles not written, see {@link #setEmptyIndex(int)}
+         */
+        public long getTilesSkipped() {
+            return tilesSkipped;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getTilesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (tilesWritten + tilesSkipped) * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return number of ozf tiles taken from the tile cache
+         */
+        public long getCacheHits() {
+            return cacheHits;
+        }
+
+        /**
+         * @return number of ozf tiles decoded
+         */
+        public long getCacheMisses() {
+            return cacheMisses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d/%d tiles, %d skipped, %.1f tiles/s, %.1f MB, %.1f s, cache hits %d, misses %d",
+                    tilesWritten + tilesSkipped, tiles, tilesSkipped, getTilesPerSecond(), bytesWritten / 1e6, elapsedNanos / 1e9, cacheHits, cacheMisses);
+        }
+    }
+
+    /**
+     * Where the tiles go.
+     */
+    private interface TileSink extends AutoCloseable {
+        void write(int z, int x, int y, byte[] png) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    public OzfTileExporter(File input) {
+        this.input = input;
+    }
+
+    /**
+     * @param tms true to count tile rows from the bottom (TMS), false to count from the top (XYZ)
+     */
+    public void setTms(boolean tms) {
+        this.tms = tms;
+    }
+
+    public void setMinZoom(int minZoom) {
+        if (minZoom < 0) {
+            throw new IllegalArgumentException("minZoom is negative!");
+        }
+
+        this.minZoom = minZoom;
+    }
+
+    /**
+     * @param maxZoom maximum zoom or -1 to stop at the zoom where a tile pixel is an image pixel
+     */
+    public void setMaxZoom(int maxZoom) {
+        if (maxZoom < -1) {
+            throw new IllegalArgumentException("bad maxZoom!");
+        }
+
+        this.maxZoom = maxZoom;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive!");
+        }
+
+        this.threads = threads;
+    }
+
+    /**
+     * @param tileCache cache for decoded ozf tiles, a private 256 MB cache is used if not set
+     */
+    public void setTileCache(OzfTileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * @param tileIndex index of uniform tiles of the input, or null
+     */
+    public void setTileIndex(OzfTileIndex tileIndex) {
+        this.tileIndex = tileIndex;
+    }
+
+    /**
+     * Output tiles made only of ozf tiles filled with this palette index are not written. Takes effect only with a
+     * tile index set.
+     *
+     * @param emptyIndex the palette index or -1 to write all tiles (the default)
+     */
+    public void setEmptyIndex(int emptyIndex) {
+        if (emptyIndex < -1 || emptyIndex > 255) {
+            throw new IllegalArgumentException("bad emptyIndex!");
+        }
+
+        this.emptyIndex = emptyIndex;
+    }
+
+    /**
+     * @param progressListener receiver of progress, called about once a second and at the end
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Cuts the input into tiles.
+     *
+     * @param output a directory, or a zip archive if the name ends with {@code .zip}
+     * @return statistics of the export
+     * @throws IOException if an error occurs during reading or writing
+     */
+    public Statistics export(File output) throws IOException {
+        long start = System.nanoTime();
+
+        OzfTileCache cache = tileCache != null ? tileCache : new OzfTileCache(DEFAULT_CACHE_SIZE);
+
+        long initialHits = cache.getHits();
+        long initialMisses = cache.getMisses();
+
+        List<OzfImageReader> readers = Collections.synchronizedList(new ArrayList<>());
+
+        ThreadLocal<OzfImageReader> reader = ThreadLocal.withInitial(() -> {
+            try {
+                OzfImageReader r = openReader(cache);
+
+                readers.add(r);
+
+                return r;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        AtomicLong tilesWritten = new AtomicLong();
+        AtomicLong tilesSkipped = new AtomicLong();
+        AtomicLong bytesWritten = new AtomicLong();
+        AtomicLong lastProgress = new AtomicLong(start);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Semaphore tilesInFlight = new Semaphore(4 * threads);
+
+        long tiles;
+
+        try (TileSink sink = createSink(output)) {
+            boolean submitted = false;
+
+            try {
+                OzfImageReader probe = openReader(cache);
+
+                readers.add(probe);
+
+                int width = probe.getWidth(0);
+                int height = probe.getHeight(0);
+
+                int nativeZoom = defaultMaxZoom(width, height);
+                int lastZoom = maxZoom >= 0 ? maxZoom : nativeZoom;
+
+                tiles = countTiles(width, height, nativeZoom, lastZoom);
+
+                for (int z = minZoom; z <= lastZoom && failure.get() == null; z++) {
+                    // tile pixels per image pixel, the image always fits into the 1 << z tiles of the zoom
+                    double scale = Math.pow(2, z - nativeZoom);
+
+                    int level = chooseLevel(probe, width, scale);
+
+                    int xTiles = (int) Math.ceil(width * scale / TILE_SIZE);
+                    int yTiles = (int) Math.ceil(height * scale / TILE_SIZE);
+
+                    for (int y = 0; y < yTiles && failure.get() == null; y++) {
+                        for (int x = 0; x < xTiles && failure.get() == null; x++) {
+                            int tileZ = z;
+                            int tileX = x;
+                            int tileY = y;
+
+                            tilesInFlight.acquire();
+
+                            executor.execute(() -> {
+                                try {
+                                    if (failure.get() != null) {
+                                        return;
+                                    }
+
+                                    Rectangle sourceRegion = getSourceRegion(reader.get(), level, width, scale, tileX, tileY);
+
+                                    if (isEmpty(level, sourceRegion)) {
+                                        tilesSkipped.incrementAndGet();
+                                    } else {
+                                        byte[] png = renderTile(reader.get(), level, width, scale, tileX, tileY, sourceRegion);
+
+                                        sink.write(tileZ, tileX, tms ? (1 << tileZ) - 1 - tileY : tileY, png);
+
+                                        tilesWritten.incrementAndGet();
+                                        bytesWritten.addAndGet(png.length);
+                                    }
+
+                                    reportProgress(lastProgress, start, tiles, tilesWritten, tilesSkipped, bytesWritten, cache, initialHits, initialMisses, false);
+                                } catch (Throwable e) {
+                                    failure.compareAndSet(null, e);
+                                } finally {
+                                    tilesInFlight.release();
+                                }
+                            });
+                        }
+                    }
+                }
+
+                submitted = true;
+            } finally {
+                executor.shutdown();
+
+                // on success queued tiles are waited for, on failure they are dropped
+                if (!submitted || failure.get() != null) {
+                    stop(executor, failure);
+                }
+
+                // the sink must not be closed while tiles are being written
+                awaitTermination(executor, failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException();
+        } finally {
+            for (OzfImageReader r : readers) {
+                ((ImageInputStream) r.getInput()).close();
+            }
+        }
+
+        Throwable e = failure.get();
+
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) e).getCause();
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new IOException(e);
+        }
+
+        return reportProgress(lastProgress, start, tiles, tilesWritten, tilesSkipped, bytesWritten, cache, initialHits, initialMisses, true);
+    }
+
+    /**
+     * Drops the tiles not started yet and interrupts the running ones. Dropped tiles fail the export.
+     */
+    private static void stop(ExecutorService executor, AtomicReference<Throwable> failure) {
+        List<Runnable> dropped = executor.shutdownNow();
+
+        if (!dropped.isEmpty()) {
+            failure.compareAndSet(null, new IOException(dropped.size() + " tiles were not written!"));
+        }
+    }
+
+    /**
+     * Waits for all tiles, stops them if the thread is interrupted, but still waits until none of them is running.
+     */
+    private static void awaitTermination(ExecutorService executor, AtomicReference<Throwable> failure) {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+
+                stop(executor, failure);
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+
+            failure.compareAndSet(null, new InterruptedIOException());
+        }
+    }
+
+    private Statistics reportProgress(AtomicLong lastProgress, long start, long tiles, AtomicLong tilesWritten, AtomicLong tilesSkipped, AtomicLong bytesWritten,
+                                      OzfTileCache cache, long initialHits, long initialMisses, boolean last) {
+        long now = System.nanoTime();
+        long previous = lastProgress.get();
+
+        if (!last && (now - previous < PROGRESS_INTERVAL || !lastProgress.compareAndSet(previous, now))) {
+            return null;
+        }
+
+        Statistics statistics = new Statistics(tiles, tilesWritten.get(), tilesSkipped.get(), bytesWritten.get(), now - start,
+                cache.getHits() - initialHits, cache.getMisses() - initialMisses);
+
+        if (progressListener != null) {
+            synchronized (progressListener) {
+                progressListener.progress(statistics);
+            }
+        }
+
+        return statistics;
+    }
+
+    private OzfImageReader openReader(OzfTileCache cache) throws IOException {
+        OzfImageReader reader = new OzfImageReader(null);
+
+        reader.setInput(new FileImageInputStream(input));
+        reader.setTileCache(cache, input.getAbsolutePath());
+        reader.setSourceName(input.getPath());
+        reader.setTileIndex(tileIndex);
+
+        return reader;
+    }
+
+    /**
+     * @return the zoom where a tile pixel is an image pixel
+     */
+    static int defaultMaxZoom(int width, int height) {
+        int zoom = 0;
+
+        while ((long) TILE_SIZE << zoom < Math.max(width, height)) {
+            zoom++;
+        }
+
+        return zoom;
+    }
+
+    private long countTiles(int width, int height, int nativeZoom, int lastZoom) {
+        long tiles = 0;
+
+        for (int z = minZoom; z <= lastZoom; z++) {
+            double scale = Math.pow(2, z - nativeZoom);
+
+            tiles += (long) Math.ceil(width * scale / TILE_SIZE) * (long) Math.ceil(height * scale / TILE_SIZE);
+        }
+
+        return tiles;
+    }
+
+    /**
+     * @return the smallest zoom level that is not smaller than the image scaled by the scale
+     */
+    private static int chooseLevel(OzfImageReader reader, int width, double scale) throws IOException {
+        int level = 0;
+
+        for (int i = 1; i < reader.getNumImages(false); i++) {
+            if (reader.getWidth(i) >= width * scale && reader.getWidth(i) < reader.getWidth(level)) {
+                level = i;
+            }
+        }
+
+        return level;
+    }
+
+    /**
+     * @return the region of the level covered by the output tile
+     */
+    private static Rectangle getSourceRegion(OzfImageReader reader, int level, int width, double scale, int x, int y) throws IOException {
+        int levelWidth = reader.getWidth(level);
+        int levelHeight = reader.getHeight(level);
+
+        // level pixels per tile pixel
+        double ratio = (double) levelWidth / width / scale;
+
+        int x1 = (int) Math.floor(x * TILE_SIZE * ratio);
+        int y1 = (int) Math.floor(y * TILE_SIZE * ratio);
+        int x2 = Math.min(levelWidth, (int) Math.ceil((x + 1) * TILE_SIZE * ratio));
+        int y2 = Math.min(levelHeight, (int) Math.ceil((y + 1) * TILE_SIZE * ratio));
+
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    /**
+     * @return true if every ozf tile under the region is filled with the empty index
+     */
+    private boolean isEmpty(int level, Rectangle sourceRegion) {
+        if (tileIndex == null || emptyIndex < 0) {
+            return false;
+        }
+
+        int tx1 = sourceRegion.x / OzfTileCodec.TILE_WIDTH;
+        int ty1 = sourceRegion.y / OzfTileCodec.TILE_HEIGHT;
+        int tx2 = (sourceRegion.x + sourceRegion.width - 1) / OzfTileCodec.TILE_WIDTH;
+        int ty2 = (sourceRegion.y + sourceRegion.height - 1) / OzfTileCodec.TILE_HEIGHT;
+
+        return tileIndex.isUniform(level, new Rectangle(tx1, ty1, tx2 - tx1 + 1, ty2 - ty1 + 1), emptyIndex);
+    }
+
+    private static byte[] renderTile(OzfImageReader reader, int level, int width, double scale, int x, int y, Rectangle sourceRegion) throws IOException {
+        int levelWidth = reader.getWidth(level);
+
+        // level pixels per tile pixel
+        double ratio = (double) levelWidth / width / scale;
+
+        int x1 = sourceRegion.x;
+        int y1 = sourceRegion.y;
+        int x2 = sourceRegion.x + sourceRegion.width;
+        int y2 = sourceRegion.y + sourceRegion.height;
+
+        ImageReadParam param = reader.getDefaultReadParam();
+
+        param.setSourceRegion(sourceRegion);
+
+        BufferedImage source = reader.read(level, param);
+
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+
+        Graphics2D g = tile.createGraphics();
+
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source,
+                    (int) Math.round(x1 / ratio) - x * TILE_SIZE, (int) Math.round(y1 / ratio) - y * TILE_SIZE,
+                    (int) Math.round(x2 / ratio) - x * TILE_SIZE, (int) Math.round(y2 / ratio) - y * TILE_SIZE,
+                    0, 0, source.getWidth(), source.getHeight(), null);
+        } finally {
+            g.dispose();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+
+        ImageIO.write(tile, "png", png);
+
+        return png.toByteArray();
+    }
+
+    private static TileSink createSink(File output) throws IOException {
+        if (output.getName().toLowerCase(Locale.ROOT).endsWith(".zip")) {
+            ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(output));
+
+            // PNG is compressed already
+            zip.setLevel(Deflater.NO_COMPRESSION);
+
+            return new TileSink() {
+                @Override
+                public synchronized void write(int z, int x, int y, byte[] png) throws IOException {
+                    zip.putNextEntry(new ZipEntry(z + "/" + x + "/" + y + ".png"));
+                    zip.write(png);
+                    zip.closeEntry();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    zip.close();
+                }
+            };
+        }
+
+        Path directory = output.toPath();
+
+        return new TileSink() {
+            @Override
+            public void write(int z, int x, int y, byte[] png) throws IOException {
+                Path column = directory.resolve(Integer.toString(z)).resolve(Integer.toString(x));
+
+                Files.createDirectories(column);
+                Files.write(column.resolve(y + ".png"), png);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * {@code OzfTileExporter [--tms] [--min-zoom N] [--max-zoom N] [--threads N] input.ozf2 output[.zip]}
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> files = new ArrayList<>();
+
+        boolean tms = false;
+        int minZoom = 0;
+        int maxZoom = -1;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--tms":
+                        tms = true;
+                        break;
+                    case "--min-zoom":
+                        minZoom = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-zoom":
+                        maxZoom = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        files.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            files.clear();
+        }
+
+        if (files.size() != 2) {
+            System.err.println("usage: OzfTileExporter [--tms] [--min-zoom N] [--max-zoom N] [--threads N] input.ozf2 output[.zip]");
+            System.exit(1);
+        }
+
+        OzfTileExporter exporter = new OzfTileExporter(new File(files.get(0)));
+
+        exporter.setTms(tms);
+        exporter.setMinZoom(minZoom);
+        exporter.setMaxZoom(maxZoom);
+        exporter.setThreads(threads);
+        exporter.setProgressListener(statistics -> System.err.println(statistics));
+
+        System.err.println(exporter.export(new File(files.get(1))));
+    }
+}
@@ -0,0 +1,335 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+/**
+ * Tells which tiles of every zoom level are filled with a single palette index.
+ * <p>
+ * Only the part of a tile within the image counts, tiles at the right and bottom edges are uniform even if the rest
+ * of them is not.
+ * <p>
+ * Built by decoding every tile once ({@link #build(OzfImageReader, Executor)}), kept as a bit per tile plus a byte per
+ * tile for the index, and can be saved as a sidecar file to skip the analysis next time. A reader with the index
+ * attached ({@link OzfImageReader#setTileIndex(OzfTileIndex)}) fills uniform tiles without reading or inflating them,
+ * {@link OzfTileExporter} can skip output tiles that are empty.
+ * <p>
+ * The index remembers the length of the file and a checksum of the tile offset table of every zoom level, so it is not
+ * attached to another file or another version of the map with the same tile grids.
+ */
+public final class OzfTileIndex {
+    private static final int MAGIC = 0x495A464F; // OZFI
+    private static final int VERSION = 2;
+    private static final AtomicReferenceArray<byte[]> uniformTiles = new AtomicReferenceArray<>(256);
+    private final long length;
+    private final int[] xTiles;
+    private final int[] yTiles;
+    private final int[] checksums;
+    private final BitSet[] uniform;
+    private final byte[][] indexes;
+
+    private OzfTileIndex(long length, int[] xTiles, int[] yTiles, int[] checksums, BitSet[] uniform, byte[][] indexes) {
+        this.length = length;
+        this.xTiles = xTiles;
+        this.yTiles = yTiles;
+        this.checksums = checksums;
+        this.uniform = uniform;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Decodes every tile of every zoom level of the reader input, see
+     * {@link OzfImageReader#readTiles(int, Executor, OzfTileConsumer)}.
+     *
+     * @param reader   the reader with the input set
+     * @param executor executor to inflate tiles
+     * @return the index
+     * @throws IOException if an error occurs during reading or decoding
+     */
+    public static OzfTileIndex build(OzfImageReader reader, Executor executor) throws IOException {
+        int images = reader.getNumImages(false);
+
+        int[] xTiles = new int[images];
+        int[] yTiles = new int[images];
+        int[] checksums = new int[images];
+        BitSet[] uniform = new BitSet[images];
+        byte[][] indexes = new byte[images][];
+
+        for (int i = 0; i < images; i++) {
+            xTiles[i] = reader.getXTiles(i);
+            yTiles[i] = reader.getYTiles(i);
+            checksums[i] = checksum(reader.getTileOffsetTable(i));
+
+            int tiles = xTiles[i] * yTiles[i];
+
+            BitSet levelUniform = new BitSet(tiles);
+            byte[] levelIndexes = new byte[tiles];
+            int levelXTiles = xTiles[i];
+            int width = reader.getWidth(i);
+            int height = reader.getHeight(i);
+
+            reader.readTiles(i, executor, (x, y, tile) -> {
+                int t = y * levelXTiles + x;
+
+                int w = Math.min(OzfTileCodec.TILE_WIDTH, width - x * OzfTileCodec.TILE_WIDTH);
+                int h = Math.min(OzfTileCodec.TILE_HEIGHT, height - y * OzfTileCodec.TILE_HEIGHT);
+
+                if (isUniform(tile, w, h)) {
+                    levelUniform.set(t);
+                    levelIndexes[t] = tile[0];
+                }
+            });
+
+            uniform[i] = levelUniform;
+            indexes[i] = levelIndexes;
+        }
+
+        return new OzfTileIndex(reader.getInputLength(), xTiles, yTiles, checksums, uniform, indexes);
+    }
+
+    /**
+     * Reads an index written by {@link #write(OutputStream)}.
+     */
+    public static OzfTileIndex read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a tile index!");
+        }
+
+        if (in.readInt() != VERSION) {
+            throw new IOException("unsupported tile index version!");
+        }
+
+        long length = in.readLong();
+        int images = in.readInt();
+
+        if (images < 0) {
+            throw new IOException("bad tile index!");
+        }
+
+        int[] xTiles = new int[images];
+        int[] yTiles = new int[images];
+        int[] checksums = new int[images];
+        BitSet[] uniform = new BitSet[images];
+        byte[][] indexes = new byte[images][];
+
+        for (int i = 0; i < images; i++) {
+            xTiles[i] = in.readInt();
+            yTiles[i] = in.readInt();
+            checksums[i] = in.readInt();
+
+            if (xTiles[i] < 1 || yTiles[i] < 1 || (long) xTiles[i] * yTiles[i] > Integer.MAX_VALUE) {
+                throw new IOException("bad tile index!");
+            }
+
+            long[] words = new long[(xTiles[i] * yTiles[i] + 63) / 64];
+
+            for (int j = 0; j < words.length; j++) {
+                words[j] = in.readLong();
+            }
+
+            uniform[i] = BitSet.valueOf(words);
+            indexes[i] = new byte[xTiles[i] * yTiles[i]];
+
+            in.readFully(indexes[i]);
+        }
+
+        return new OzfTileIndex(length, xTiles, yTiles, checksums, uniform, indexes);
+    }
+
+    public static OzfTileIndex load(File file) throws IOException {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            return read(is);
+        }
+    }
+
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(length);
+        out.writeInt(xTiles.length);
+
+        for (int i = 0; i < xTiles.length; i++) {
+            out.writeInt(xTiles[i]);
+            out.writeInt(yTiles[i]);
+            out.writeInt(checksums[i]);
+
+            long[] words = Arrays.copyOf(uniform[i].toLongArray(), (xTiles[i] * yTiles[i] + 63) / 64);
+
+            for (long word : words) {
+                out.writeLong(word);
+            }
+
+            out.write(indexes[i]);
+        }
+
+        out.flush();
+    }
+
+    public void save(File file) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(os);
+        }
+    }
+
+    public int getNumImages() {
+        return xTiles.length;
+    }
+
+    public int getXTiles(int imageIndex) {
+        checkImageIndex(imageIndex);
+
+        return xTiles[imageIndex];
+    }
+
+    public int getYTiles(int imageIndex) {
+        checkImageIndex(imageIndex);
+
+        return yTiles[imageIndex];
+    }
+
+    /**
+     * @return number of uniform tiles of the image
+     */
+    public int getNumUniformTiles(int imageIndex) {
+        checkImageIndex(imageIndex);
+
+        return uniform[imageIndex].cardinality();
+    }
+
+    /**
+     * @return the palette index the tile is filled with, or -1 if the tile is not uniform
+     */
+    public int getUniformIndex(int imageIndex, int x, int y) {
+        checkImageIndex(imageIndex);
+
+        if (x < 0 || x >= xTiles[imageIndex] || y < 0 || y >= yTiles[imageIndex]) {
+            throw new IllegalArgumentException("bad tile index!");
+        }
+
+        int t = y * xTiles[imageIndex] + x;
+
+        return uniform[imageIndex].get(t) ? indexes[imageIndex][t] & 0xFF : -1;
+    }
+
+    /**
+     * @param tiles        a rectangle of tiles within the tile grid of the image
+     * @param paletteIndex the palette index
+     * @return true if every tile of the rectangle is filled with the palette index
+     */
+    public boolean isUniform(int imageIndex, Rectangle tiles, int paletteIndex) {
+        for (int y = tiles.y; y < tiles.y + tiles.height; y++) {
+            for (int x = tiles.x; x < tiles.x + tiles.width; x++) {
+                if (getUniformIndex(imageIndex, x, y) != paletteIndex) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the tile filled with its palette index or null if it is not uniform; the array is shared and must not be
+     * changed
+     */
+    byte[] getUniformTile(int imageIndex, int x, int y) {
+        int paletteIndex = getUniformIndex(imageIndex, x, y);
+
+        if (paletteIndex < 0) {
+            return null;
+        }
+
+        byte[] tile = uniformTiles.get(paletteIndex);
+
+        if (tile == null) {
+            tile = new byte[OzfTileCodec.TILE_SIZE];
+
+            Arrays.fill(tile, (byte) paletteIndex);
+
+            uniformTiles.compareAndSet(paletteIndex, null, tile);
+        }
+
+        return tile;
+    }
+
+    /**
+     * @return true if the index was built for a file of the same length, tile grids and tile offset tables as the
+     * reader input
+     */
+    boolean matches(OzfImageReader reader) throws IOException {
+        if (reader.getInputLength() != length || reader.getNumImages(false) != xTiles.length) {
+            return false;
+        }
+
+        for (int i = 0; i < xTiles.length; i++) {
+            if (reader.getXTiles(i) != xTiles[i] || reader.getYTiles(i) != yTiles[i]
+                    || checksum(reader.getTileOffsetTable(i)) != checksums[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int checksum(int[] tileOffsetTable) {
+        CRC32 crc = new CRC32();
+
+        byte[] bytes = new byte[4];
+
+        for (int offset : tileOffsetTable) {
+            bytes[0] = (byte) (offset >>> 24);
+            bytes[1] = (byte) (offset >>> 16);
+            bytes[2] = (byte) (offset >>> 8);
+            bytes[3] = (byte) offset;
+
+            crc.update(bytes, 0, 4);
+        }
+
+        return (int) crc.getValue();
+    }
+
+    private void checkImageIndex(int imageIndex) {
+        if (imageIndex < 0 || imageIndex >= xTiles.length) {
+            throw new IndexOutOfBoundsException("bad imageIndex!");
+        }
+    }
+
+    /**
+     * @return true if the top left {@code w x h} part of the tile is filled with a single index
+     */
+    private static boolean isUniform(byte[] tile, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return false;
+        }
+
+        byte first = tile[0];
+
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                if (tile[y * OzfTileCodec.TILE_WIDTH + x] != first) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+}
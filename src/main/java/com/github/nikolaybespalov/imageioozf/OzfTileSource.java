@@ -0,0 +1,218 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.IndexColorModel;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.github.nikolaybespalov.imageioozf.OzfDecoder.decode;
+
+/**
+ * Serves tiles of an ozf file to any number of threads at once.
+ * <p>
+ * Unlike {@link OzfImageReader}, which works on a single stream and keeps state between calls, the tile source reads
+ * the header once and then keeps nothing but immutable tables. Every tile is read by a positional
+ * {@link FileChannel#read(ByteBuffer, long)}, so concurrent reads neither share a file position nor wait for each
+ * other, and nothing on the way is {@code synchronized}, which makes it fit for virtual threads.
+ * <p>
+ * Interrupting a thread that reads from a {@link FileChannel} closes the channel for everybody. The tile source reopens
+ * the channel in that case (the only place where it takes a lock), the interrupted read fails with
+ * {@link InterruptedIOException}, others go on.
+ */
+public class OzfTileSource implements Closeable {
+    private final File file;
+    private final OzfTileCache tileCache;
+    private final boolean encrypted;
+    private final byte key;
+    private final long fileSize;
+    private final int[][] tileOffsetTables;
+    private final OzfImageMetadata[] levels;
+    private final ReentrantLock reopenLock = new ReentrantLock();
+    private volatile FileChannel channel;
+    private volatile boolean closed = false;
+
+    public OzfTileSource(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * @param file      the ozf file
+     * @param tileCache cache of decoded tiles, or null
+     * @throws IOException if the file can't be opened or its header read
+     */
+    public OzfTileSource(File file, OzfTileCache tileCache) throws IOException {
+        this.file = file;
+        this.tileCache = tileCache;
+
+        try (ImageInputStream is = new FileImageInputStream(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+            reader.setSourceName(file.getPath());
+
+            int images = reader.getNumImages(false);
+
+            this.encrypted = reader.isEncrypted();
+            this.key = reader.getKey();
+            this.fileSize = is.length();
+            this.tileOffsetTables = new int[images][];
+            this.levels = new OzfImageMetadata[images];
+
+            for (int i = 0; i < images; i++) {
+                tileOffsetTables[i] = reader.getTileOffsetTable(i);
+                levels[i] = (OzfImageMetadata) reader.getImageMetadata(i);
+            }
+        }
+
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    public int getNumImages() {
+        return levels.length;
+    }
+
+    public int getWidth(int imageIndex) {
+        return getLevel(imageIndex).getWidth();
+    }
+
+    public int getHeight(int imageIndex) {
+        return getLevel(imageIndex).getHeight();
+    }
+
+    public int getXTiles(int imageIndex) {
+        return getLevel(imageIndex).getXTiles();
+    }
+
+    public int getYTiles(int imageIndex) {
+        return getLevel(imageIndex).getYTiles();
+    }
+
+    public IndexColorModel getColorModel(int imageIndex) {
+        return getLevel(imageIndex).getPalette();
+    }
+
+    /**
+     * @param imageIndex the index of the image
+     * @param x          the column index of the tile
+     * @param y          the row index of the tile
+     * @return 64x64 palette indexes, top line first; the array belongs to the caller
+     * @throws IOException if an error occurs during reading or decoding
+     */
+    public byte[] readTile(int imageIndex, int x, int y) throws IOException {
+        OzfImageMetadata level = getLevel(imageIndex);
+
+        if (x < 0 || x >= level.getXTiles()) {
+            throw new IllegalArgumentException("bad x!");
+        }
+
+        if (y < 0 || y >= level.getYTiles()) {
+            throw new IllegalArgumentException("bad y!");
+        }
+
+        if (tileCache != null) {
+            // concurrent requests for the same tile share one load
+            return tileCache.get(this, imageIndex, x, y, OzfMetrics.NONE, () -> loadTile(imageIndex, x, y)).clone();
+        }
+
+        return loadTile(imageIndex, x, y);
+    }
+
+    private byte[] loadTile(int imageIndex, int x, int y) throws IOException {
+        int i = y * getLevel(imageIndex).getXTiles() + x;
+
+        long tileOffset = Integer.toUnsignedLong(tileOffsetTables[imageIndex][i]);
+        long tileEnd = Integer.toUnsignedLong(tileOffsetTables[imageIndex][i + 1]);
+
+        if (tileEnd < tileOffset || tileEnd > fileSize) {
+            throw new IOException("bad tile offset!");
+        }
+
+        ByteBuffer compressed = ByteBuffer.allocate((int) (tileEnd - tileOffset));
+
+        read(compressed, tileOffset);
+
+        compressed.flip();
+
+        if (encrypted) {
+            ByteBuffer encryptedPart = compressed.duplicate();
+            encryptedPart.limit(Math.min(compressed.remaining(), OzfImageReader.OZF_ENCRYPTION_DEPTH));
+            decode(encryptedPart, key);
+        }
+
+        return OzfTileCodec.inflate(compressed);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reopenLock.lock();
+
+        try {
+            closed = true;
+
+            channel.close();
+        } finally {
+            reopenLock.unlock();
+        }
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        long start = position;
+
+        while (buffer.hasRemaining()) {
+            FileChannel channel = this.channel;
+
+            int n;
+
+            try {
+                n = channel.read(buffer, start + buffer.position());
+            } catch (ClosedByInterruptException e) {
+                reopen(channel);
+
+                throw new InterruptedIOException();
+            } catch (ClosedChannelException e) {
+                // closed by an interrupt of another thread, retry with the reopened channel
+                reopen(channel);
+
+                continue;
+            }
+
+            if (n < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private void reopen(FileChannel closedChannel) throws IOException {
+        reopenLock.lock();
+
+        try {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+
+            if (channel == closedChannel) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+        } finally {
+            reopenLock.unlock();
+        }
+    }
+
+    private OzfImageMetadata getLevel(int imageIndex) {
+        if (imageIndex < 0 || imageIndex >= levels.length) {
+            throw new IndexOutOfBoundsException("bad imageIndex!");
+        }
+
+        return levels[imageIndex];
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfAdmissionControllerTest {
+
+    @Test
+    public void testReject() throws IOException {
+        OzfAdmissionController controller = new OzfAdmissionController(64 * 1024, 1, 0, TimeUnit.SECONDS);
+        OzfCounters counters = new OzfCounters();
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+
+        assertEquals(100 * 70 + 2 * 64 * 64, controller.estimate(100, 70, 1));
+
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+            reader.setMetrics(counters);
+            reader.setAdmissionController(controller);
+            reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+                @Override
+                public void sequenceStarted(ImageReader imageReader, int i) {
+                }
+
+                @Override
+                public void sequenceComplete(ImageReader imageReader) {
+                }
+
+                @Override
+                public void imageStarted(ImageReader imageReader, int i) {
+                    started.incrementAndGet();
+                }
+
+                @Override
+                public void imageProgress(ImageReader imageReader, float v) {
+                }
+
+                @Override
+                public void imageComplete(ImageReader imageReader) {
+                    completed.incrementAndGet();
+                }
+
+                @Override
+                public void thumbnailStarted(ImageReader imageReader, int i, int i1) {
+                }
+
+                @Override
+                public void thumbnailProgress(ImageReader imageReader, float v) {
+                }
+
+                @Override
+                public void thumbnailComplete(ImageReader imageReader) {
+                }
+
+                @Override
+                public void readAborted(ImageReader imageReader) {
+                }
+            });
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceRegion(new Rectangle(10, 10, 100, 70));
+
+            assertNotNull(reader.read(0, param));
+            assertNotNull(reader.readRaster(0, param));
+
+            // larger than the whole budget
+            assertThrows(IIOException.class, () -> reader.read(0));
+
+            // the budget is taken by someone else and there is no timeout
+            controller.acquire(controller.getMaxBytes(), OzfMetrics.NONE);
+
+            try {
+                assertThrows(IIOException.class, () -> reader.read(0, param));
+            } finally {
+                controller.release(controller.getMaxBytes());
+            }
+        }
+
+        assertEquals(3, controller.getAdmitted());
+        assertEquals(2, controller.getRejections());
+        // every started read is completed, rejected ones are not started
+        assertEquals(2, started.get());
+        assertEquals(2, completed.get());
+        assertEquals(2, counters.getAdmissionRejections());
+        assertEquals(0, controller.getUsedBytes());
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        OzfAdmissionController controller = new OzfAdmissionController(64 * 1024, 1, 1, TimeUnit.MINUTES);
+        OzfCounters counters = new OzfCounters();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+            reader.setMetrics(counters);
+            reader.setAdmissionController(controller);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceRegion(new Rectangle(10, 10, 100, 70));
+
+            controller.acquire(controller.getMaxBytes(), OzfMetrics.NONE);
+
+            Future<BufferedImage> read = executor.submit(() -> reader.read(0, param));
+
+            while (controller.getWaiting() == 0) {
+                Thread.sleep(1);
+            }
+
+            assertFalse(read.isDone());
+
+            controller.release(controller.getMaxBytes());
+
+            assertEquals(100, read.get().getWidth());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, controller.getWaits());
+        assertEquals(0, controller.getRejections());
+        assertEquals(1, counters.getAdmissionWaits().getCount());
+        assertEquals(0, controller.getUsedBytes());
+    }
+}
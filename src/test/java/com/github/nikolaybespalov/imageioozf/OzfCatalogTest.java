@@ -0,0 +1,142 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfCatalogTest {
+
+    @Test
+    public void testReopen() throws IOException {
+        try (OzfCatalog catalog = createCatalog(1, null)) {
+            assertEquals(0, catalog.getOpenReaders());
+
+            BufferedImage first = catalog.readTile("ozf2", 0, 1, 1);
+
+            assertEquals(1, catalog.getOpenReaders());
+            assertTrue(catalog.getHeaderMemory() > 0);
+
+            catalog.readTile("ozf3", 0, 1, 1);
+
+            assertEquals(1, catalog.getOpenReaders());
+
+            BufferedImage second = catalog.readTile("ozf2", 0, 1, 1);
+
+            assertEquals(1, catalog.getOpenReaders());
+            assertTileEquals(first, second);
+        }
+    }
+
+    @Test
+    public void testHeaderMemoryLimit() throws IOException {
+        try (OzfCatalog catalog = createCatalog(10, 1, null)) {
+            catalog.readTile("ozf2", 0, 0, 0);
+            catalog.readTile("ozf3", 0, 0, 0);
+
+            assertEquals(0, catalog.getOpenReaders());
+            assertEquals(0, catalog.getHeaderMemory());
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws IOException, InterruptedException, ExecutionException {
+        OzfTileCache cache = new OzfTileCache(1 << 20);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try (OzfCatalog catalog = createCatalog(1, cache)) {
+            BufferedImage expected = catalog.readTile("ozf3", 0, 2, 3);
+
+            List<Future<BufferedImage>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 40; i++) {
+                String id = i % 2 == 0 ? "ozf2" : "ozf3";
+
+                futures.add(executor.submit(() -> catalog.readTile(id, 0, 2, 3)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                BufferedImage tile = futures.get(i).get();
+
+                if (i % 2 != 0) {
+                    assertTileEquals(expected, tile);
+                }
+            }
+
+            assertTrue(catalog.getOpenReaders() <= 1);
+            assertTrue(cache.getHits() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnknownMap() throws IOException {
+        try (OzfCatalog catalog = createCatalog(1, null)) {
+            assertThrows(IllegalArgumentException.class, () -> catalog.readTile("ozf4", 0, 0, 0));
+            assertThrows(IllegalArgumentException.class, () -> catalog.register("ozf2", ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2")));
+
+            catalog.unregister("ozf2");
+
+            assertFalse(catalog.contains("ozf2"));
+        }
+    }
+
+    @Test
+    public void testReregister() throws IOException {
+        OzfTileCache cache = new OzfTileCache(1 << 20);
+
+        try (OzfCatalog catalog = createCatalog(1, cache)) {
+            BufferedImage expected = catalog.readTile("ozf3", 0, 1, 1);
+
+            catalog.readTile("ozf2", 0, 1, 1);
+
+            long size = cache.getSize();
+
+            catalog.unregister("ozf2");
+
+            assertTrue(cache.getSize() < size);
+
+            catalog.register("ozf2", ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"));
+
+            long misses = cache.getMisses();
+
+            assertTileEquals(expected, catalog.readTile("ozf2", 0, 1, 1));
+            assertEquals(misses + 1, cache.getMisses());
+        }
+    }
+
+    private static OzfCatalog createCatalog(int maxOpenReaders, OzfTileCache cache) throws IOException {
+        return createCatalog(maxOpenReaders, Long.MAX_VALUE, cache);
+    }
+
+    private static OzfCatalog createCatalog(int maxOpenReaders, long maxHeaderMemory, OzfTileCache cache) throws IOException {
+        OzfCatalog catalog = new OzfCatalog(maxOpenReaders, maxHeaderMemory, cache);
+
+        catalog.register("ozf2", ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2"));
+        catalog.register("ozf3", ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"));
+
+        return catalog;
+    }
+
+    private static void assertTileEquals(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+}
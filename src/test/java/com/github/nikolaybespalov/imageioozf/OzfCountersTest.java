@@ -0,0 +1,77 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfCountersTest {
+
+    @Test
+    public void testReadOzf3() throws IOException {
+        OzfCounters counters = new OzfCounters();
+
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+            reader.setMetrics(counters);
+            reader.setTileCache(new OzfTileCache(1 << 20), "World.ozf3");
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceRegion(new Rectangle(10, 10, 100, 70));
+
+            reader.read(0, param);
+            reader.read(0, param);
+        }
+
+        assertEquals(1, counters.getHeader().getCount());
+        assertEquals(2, counters.getRegions());
+        assertEquals(2 * 100 * 70, counters.getRegionPixels());
+        assertEquals(2 * 4, counters.getRegionTiles());
+
+        // the second read is served by the cache
+        assertEquals(4, counters.getCacheMisses());
+        assertEquals(4, counters.getCacheHits());
+
+        assertEquals(4, counters.getPhase(OzfMetrics.Phase.READ).getCount());
+        assertEquals(4, counters.getPhase(OzfMetrics.Phase.DECRYPT).getCount());
+        assertEquals(4, counters.getPhase(OzfMetrics.Phase.INFLATE).getCount());
+        assertEquals(4, counters.getPhase(OzfMetrics.Phase.FLIP).getCount());
+        assertEquals(8, counters.getPhase(OzfMetrics.Phase.COPY).getCount());
+
+        assertEquals(4 * 64 * 64, counters.getInflatedBytes());
+        assertTrue(counters.getCompressedBytes() > 0);
+        assertTrue(counters.getCompressedBytes() < counters.getInflatedBytes());
+
+        counters.reset();
+
+        assertEquals(0, counters.getRegions());
+        assertEquals(0, counters.getPhase(OzfMetrics.Phase.READ).getPercentile(50));
+    }
+
+    @Test
+    public void testHistogram() {
+        OzfCounters counters = new OzfCounters();
+
+        for (int i = 1; i <= 100; i++) {
+            counters.tilePhase(OzfMetrics.Phase.INFLATE, i * 1000);
+        }
+
+        OzfCounters.Histogram histogram = counters.getPhase(OzfMetrics.Phase.INFLATE);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50500, histogram.getMean());
+
+        // 50000 is in [32768, 65535], 99000 is in [65536, 131071]
+        assertEquals(65535, histogram.getPercentile(50));
+        assertEquals(131071, histogram.getPercentile(99));
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfFlightRecorderTest {
+
+    @Test
+    public void testEvents() throws IOException {
+        Path file = Files.createTempFile("imageio-ozf", ".jfr");
+        File ozf2 = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2");
+
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("com.github.nikolaybespalov.imageioozf.Header");
+                recording.enable("com.github.nikolaybespalov.imageioozf.Tile").withThreshold(Duration.ZERO);
+                recording.enable("com.github.nikolaybespalov.imageioozf.ReadTile").withThreshold(Duration.ZERO);
+                recording.enable("com.github.nikolaybespalov.imageioozf.Read").withThreshold(Duration.ZERO);
+                recording.start();
+
+                try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+                    OzfImageReader reader = new OzfImageReader(null);
+
+                    reader.setInput(is);
+                    reader.setTileCache(new OzfTileCache(1 << 20), "World.ozf3");
+
+                    reader.readTile(0, 2, 3);
+                    reader.readTile(0, 2, 3);
+                    reader.read(1);
+                }
+
+                // nothing names a plain stream
+                try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2"))) {
+                    OzfImageReader reader = new OzfImageReader(null);
+
+                    reader.setInput(is);
+                    reader.getNumImages(false);
+                }
+
+                try (OzfCatalog catalog = new OzfCatalog(1, Long.MAX_VALUE, null)) {
+                    catalog.register("world", ozf2);
+                    catalog.readTile("world", 0, 0, 0);
+                }
+
+                recording.stop();
+                recording.dump(file);
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+
+            List<RecordedEvent> headers = filter(events, "Header");
+
+            String catalogSource = "world (" + ozf2.getPath() + ")";
+
+            assertEquals(3, headers.size());
+            assertTrue(headers.stream().anyMatch(e -> "World.ozf3".equals(e.getString("source")) && e.getBoolean("encrypted")));
+            assertTrue(headers.stream().anyMatch(e -> e.getString("source") == null));
+            assertTrue(headers.stream().anyMatch(e -> catalogSource.equals(e.getString("source"))));
+
+            List<RecordedEvent> readTiles = filter(events, "ReadTile");
+
+            assertEquals(3, readTiles.size());
+            assertEquals(1, readTiles.stream().filter(e -> catalogSource.equals(e.getString("source"))).count());
+
+            List<RecordedEvent> reads = filter(events, "Read");
+
+            assertEquals(1, reads.size());
+            assertEquals(1, reads.get(0).getInt("level"));
+
+            List<RecordedEvent> tiles = filter(events, "Tile").stream()
+                    .filter(e -> e.getInt("level") == 0 && "World.ozf3".equals(e.getString("source")))
+                    .collect(Collectors.toList());
+
+            assertEquals(2, tiles.size());
+
+            RecordedEvent decoded = tiles.stream().filter(e -> !e.getBoolean("cached")).findFirst().orElseThrow(AssertionError::new);
+
+            assertEquals(2, decoded.getInt("x"));
+            assertEquals(3, decoded.getInt("y"));
+            assertTrue(decoded.getInt("compressedSize") > 0);
+            assertTrue(decoded.getLong("inflateDuration") > 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.github.nikolaybespalov.imageioozf." + name))
+                .collect(Collectors.toList());
+    }
+}
@@ -3,13 +3,30 @@ package com.github.nikolaybespalov.imageioozf;
 import com.github.davidcarboni.ResourceUtils;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -30,7 +47,7 @@ public class OzfImageReadTest {
             reader.setInput(is);
 
             // checks basic reader capabilities
-            assertNull(reader.getStreamMetadata());
+            assertNotNull(reader.getStreamMetadata());
 
             assertEquals(8, reader.getNumImages(false));
             assertThrows(IndexOutOfBoundsException.class, () -> reader.read(123));
@@ -57,7 +74,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(0));
             assertEquals(1, reader.getNumThumbnails(0));
             assertTrue(reader.isImageTiled(0));
-            assertNull(reader.getImageMetadata(0));
+            assertNotNull(reader.getImageMetadata(0));
 
             ImageReadParam param1 = new ImageReadParam();
             param0.setSourceRegion(new Rectangle(0, 0, 374, 187));
@@ -67,7 +84,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(1));
             assertEquals(1, reader.getNumThumbnails(1));
             assertTrue(reader.isImageTiled(1));
-            assertNull(reader.getImageMetadata(1));
+            assertNotNull(reader.getImageMetadata(1));
 
             ImageReadParam param2 = new ImageReadParam();
             param0.setSourceRegion(new Rectangle(0, 0, 249, 125));
@@ -77,7 +94,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(2));
             assertEquals(1, reader.getNumThumbnails(2));
             assertTrue(reader.isImageTiled(2));
-            assertNull(reader.getImageMetadata(2));
+            assertNotNull(reader.getImageMetadata(2));
 
             ImageReadParam param3 = new ImageReadParam();
             param0.setSourceRegion(new Rectangle(0, 0, 166, 83));
@@ -87,7 +104,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(3));
             assertEquals(1, reader.getNumThumbnails(3));
             assertTrue(reader.isImageTiled(3));
-            assertNull(reader.getImageMetadata(3));
+            assertNotNull(reader.getImageMetadata(3));
 
             ImageReadParam param4 = new ImageReadParam();
             param0.setSourceRegion(new Rectangle(0, 0, 99, 50));
@@ -97,7 +114,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(4));
             assertEquals(1, reader.getNumThumbnails(4));
             assertTrue(reader.isImageTiled(4));
-            assertNull(reader.getImageMetadata(4));
+            assertNotNull(reader.getImageMetadata(4));
 
             ImageReadParam param5 = new ImageReadParam();
             param0.setSourceRegion(new Rectangle(0, 0, 49, 25));
@@ -107,7 +124,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(5));
             assertEquals(1, reader.getNumThumbnails(5));
             assertTrue(reader.isImageTiled(5));
-            assertNull(reader.getImageMetadata(5));
+            assertNotNull(reader.getImageMetadata(5));
 
             ImageReadParam param6 = new ImageReadParam();
             param0.setSourceRegion(new Rectangle(0, 0, 24, 12));
@@ -117,7 +134,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(6));
             assertEquals(1, reader.getNumThumbnails(6));
             assertTrue(reader.isImageTiled(6));
-            assertNull(reader.getImageMetadata(6));
+            assertNotNull(reader.getImageMetadata(6));
 
             ImageReadParam param7 = new ImageReadParam();
             param0.setSourceRegion(new Rectangle(0, 0, 12, 6));
@@ -127,7 +144,7 @@ public class OzfImageReadTest {
             assertTrue(reader.hasThumbnails(7));
             assertEquals(1, reader.getNumThumbnails(7));
             assertTrue(reader.isImageTiled(7));
-            assertNull(reader.getImageMetadata(7));
+            assertNotNull(reader.getImageMetadata(7));
 
             ImageReadParam param = new ImageReadParam();
             param.setSourceRegion(new Rectangle(12, 21, 21, 12));
@@ -194,6 +211,453 @@ public class OzfImageReadTest {
         }
     }
 
+    /**
+     * This test checks that streaming decode gives the same tiles as {@link ImageReader#readTile}.
+     */
+    @Test
+    public void readTilesOzf3() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+
+            try {
+                Map<Point, byte[]> tiles = new HashMap<>();
+
+                reader.readTiles(1, executor, 3, (x, y, tile) -> tiles.put(new Point(x, y), tile));
+
+                assertEquals(81, tiles.size());
+
+                for (Map.Entry<Point, byte[]> tile : tiles.entrySet()) {
+                    BufferedImage expected = reader.readTile(1, tile.getKey().x, tile.getKey().y);
+
+                    assertArrayEquals(((DataBufferByte) expected.getRaster().getDataBuffer()).getData(), tile.getValue());
+                }
+
+                assertThrows(IOException.class, () -> reader.readTiles(1, executor, (x, y, tile) -> {
+                    throw new IOException("stop");
+                }));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * This test checks that a parallel read gives the same image, updates cover it whole and progress only grows.
+     */
+    @Test
+    public void readParallelOzf3() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            OzfImageReadParam param = (OzfImageReadParam) reader.getDefaultReadParam();
+
+            param.setSourceRegion(new Rectangle(30, 40, 700, 500));
+
+            BufferedImage expected = reader.read(0, param);
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+
+            try {
+                param.setExecutor(executor);
+                param.setTilesInFlight(5);
+
+                boolean[] updated = new boolean[700 * 500];
+                List<Float> progress = new ArrayList<>();
+
+                reader.addIIOReadUpdateListener(new IIOReadUpdateAdapter() {
+                    @Override
+                    public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands) {
+                        for (int y = minY; y < minY + height; y++) {
+                            for (int x = minX; x < minX + width; x++) {
+                                assertFalse(updated[y * 700 + x]);
+
+                                updated[y * 700 + x] = true;
+                            }
+                        }
+                    }
+                });
+                reader.addIIOReadProgressListener(new IIOReadProgressAdapter() {
+                    @Override
+                    public void imageProgress(ImageReader source, float percentageDone) {
+                        progress.add(percentageDone);
+                    }
+                });
+
+                BufferedImage image = reader.read(0, param);
+
+                assertArrayEquals(((DataBufferByte) expected.getRaster().getDataBuffer()).getData(), ((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+
+                for (boolean b : updated) {
+                    assertTrue(b);
+                }
+
+                // x 0..11, y 0..8
+                assertEquals(12 * 9, progress.size());
+                assertEquals(100.0F, progress.get(progress.size() - 1), 0.0F);
+
+                for (int i = 1; i < progress.size(); i++) {
+                    assertTrue(progress.get(i) > progress.get(i - 1));
+                }
+
+                reader.removeAllIIOReadUpdateListeners();
+                reader.removeAllIIOReadProgressListeners();
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * This test checks that an aborted read returns the tiles read so far.
+     */
+    @Test
+    public void readAbortedOzf3() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            boolean[] aborted = new boolean[1];
+
+            reader.addIIOReadProgressListener(new IIOReadProgressAdapter() {
+                @Override
+                public void imageProgress(ImageReader source, float percentageDone) {
+                    // the first row of 33 tiles
+                    if (percentageDone >= 100.0F / 33) {
+                        source.abort();
+                    }
+                }
+
+                @Override
+                public void readAborted(ImageReader source) {
+                    aborted[0] = true;
+                }
+            });
+
+            BufferedImage image = reader.read(0);
+
+            assertTrue(aborted[0]);
+            assertEquals(2108, image.getWidth());
+
+            BufferedImage tile = reader.readTile(0, 5, 0);
+            BufferedImage missingTile = reader.readTile(0, 5, 1);
+
+            assertEquals(tile.getRGB(10, 10), image.getRGB(5 * 64 + 10, 10));
+            assertEquals(0, image.getRaster().getSample(5 * 64 + 10, 64 + 10, 0));
+            assertNotEquals(0, missingTile.getRaster().getSample(10, 10, 0));
+        }
+    }
+
+    /**
+     * This test checks reading into a direct buffer.
+     */
+    @Test
+    public void readIntoBufferOzf3() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceRegion(new Rectangle(100, 1000, 300, 200));
+
+            BufferedImage expected = reader.read(0, param);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(10 + 300 * 200 + 10);
+
+            buffer.position(10);
+
+            reader.read(0, param, buffer);
+
+            assertEquals(10 + 300 * 200, buffer.position());
+
+            byte[] actual = new byte[300 * 200];
+
+            buffer.position(10);
+            buffer.get(actual);
+
+            assertArrayEquals(((DataBufferByte) expected.getRaster().getDataBuffer()).getData(), actual);
+
+            int[] events = new int[2];
+
+            reader.addIIOReadProgressListener(new IIOReadProgressAdapter() {
+                @Override
+                public void imageStarted(ImageReader source, int imageIndex) {
+                    events[0]++;
+                }
+
+                @Override
+                public void imageComplete(ImageReader source) {
+                    events[1]++;
+                }
+            });
+
+            // failed checks are not reported to listeners
+            assertThrows(IllegalArgumentException.class, () -> reader.read(0, param, ByteBuffer.allocate(300 * 200 - 1)));
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.read(reader.getNumImages(false), param, ByteBuffer.allocate(300 * 200)));
+
+            assertEquals(0, events[0]);
+
+            reader.read(0, param, ByteBuffer.allocate(300 * 200));
+
+            assertEquals(1, events[0]);
+            assertEquals(1, events[1]);
+        }
+    }
+
+    /**
+     * This test checks that preloaded images are read without touching the input.
+     */
+    @Test
+    public void readPreloadedOzf3() throws IOException {
+        ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"));
+
+        OzfImageReader reader = new OzfImageReader(null);
+
+        reader.setInput(is);
+
+        BufferedImage expected = reader.read(1);
+
+        assertFalse(reader.preload(1, 0, 1));
+        assertEquals(0, reader.getPreloadedMemory());
+
+        assertTrue(reader.preload(Long.MAX_VALUE, 1));
+        assertTrue(reader.getPreloadedMemory() > 0);
+
+        is.close();
+
+        BufferedImage actual = reader.read(1);
+
+        assertArrayEquals(((DataBufferByte) expected.getRaster().getDataBuffer()).getData(), ((DataBufferByte) actual.getRaster().getDataBuffer()).getData());
+
+        // not preloaded images are still read from the input
+        assertThrows(IOException.class, () -> reader.readTile(0, 0, 0));
+    }
+
+    /**
+     * This test checks that raster reads give the same pixels as image reads.
+     */
+    @Test
+    public void readRasterOzf3() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            assertTrue(reader.canReadRaster());
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceRegion(new Rectangle(100, 1000, 300, 200));
+
+            BufferedImage expected = reader.read(0, param);
+
+            Raster raster = reader.readRaster(0, param);
+
+            assertEquals(300, raster.getWidth());
+            assertEquals(200, raster.getHeight());
+            assertArrayEquals(((DataBufferByte) expected.getRaster().getDataBuffer()).getData(), ((DataBufferByte) raster.getDataBuffer()).getData());
+
+            Raster tile = reader.readTileRaster(0, 5, 0);
+
+            assertArrayEquals(((DataBufferByte) reader.readTile(0, 5, 0).getRaster().getDataBuffer()).getData(), ((DataBufferByte) tile.getDataBuffer()).getData());
+
+            // tiles of an image share the sample model
+            assertSame(tile.getSampleModel(), reader.readTileRaster(0, 6, 0).getSampleModel());
+
+            assertThrows(IllegalArgumentException.class, () -> reader.readTileRaster(0, 0, 123));
+        }
+    }
+
+    @Test
+    public void readSubsampledOzf3() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            Rectangle region = new Rectangle(100, 1000, 300, 200);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceRegion(region);
+
+            Raster full = reader.readRaster(0, param);
+
+            // periods longer than a tile skip whole tiles
+            param.setSourceSubsampling(3, 70, 1, 2);
+
+            Raster raster = reader.readRaster(0, param);
+            BufferedImage image = reader.read(0, param);
+
+            assertEquals((300 - 1 + 2) / 3, raster.getWidth());
+            assertEquals((200 - 2 + 69) / 70, raster.getHeight());
+            assertEquals(raster.getWidth(), image.getWidth());
+            assertEquals(raster.getHeight(), image.getHeight());
+
+            for (int y = 0; y < raster.getHeight(); y++) {
+                for (int x = 0; x < raster.getWidth(); x++) {
+                    assertEquals(full.getSample(1 + x * 3, 2 + y * 70, 0), raster.getSample(x, y, 0));
+                    assertEquals(full.getSample(1 + x * 3, 2 + y * 70, 0), image.getRaster().getSample(x, y, 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * This test checks that a damaged tile fails a strict read, is filled in a lenient read and is found by validation.
+     */
+    @Test
+    public void readDamagedTile() throws IOException {
+        File file = Files.createTempFile("imageio-ozf", ".ozf2").toFile();
+
+        try {
+            BufferedImage source = new BufferedImage(300, 200, BufferedImage.TYPE_BYTE_GRAY);
+
+            ImageIO.write(source, "OziExplorer Image File", file);
+
+            try (ImageInputStream is = new FileImageInputStream(file)) {
+                OzfImageReader reader = new OzfImageReader(null);
+
+                reader.setInput(is);
+
+                Iterator<OzfRawTile> it = reader.readRawTiles(0);
+
+                while (it.hasNext()) {
+                    OzfRawTile tile = it.next();
+
+                    if (tile.getX() == 2 && tile.getY() == 1) {
+                        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                            // right after the zlib header, 0xFF is a reserved block type
+                            raf.seek(tile.getOffset() + 2);
+                            raf.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+                        }
+                    }
+                }
+            }
+
+            try (ImageInputStream is = new FileImageInputStream(file)) {
+                OzfImageReader reader = new OzfImageReader(null);
+
+                reader.setInput(is);
+
+                assertThrows(IOException.class, () -> reader.read(0));
+
+                List<String> warnings = new ArrayList<>();
+
+                reader.addIIOReadWarningListener((r, warning) -> warnings.add(warning));
+
+                OzfImageReadParam param = (OzfImageReadParam) reader.getDefaultReadParam();
+
+                param.setLenient(true);
+                param.setFillIndex(7);
+
+                BufferedImage image = reader.read(0, param);
+
+                assertEquals(7, image.getRaster().getSample(2 * 64 + 5, 64 + 5, 0));
+                assertEquals(0, image.getRaster().getSample(5, 5, 0));
+                assertEquals(1, warnings.size());
+                assertEquals(1, reader.getDamagedTiles().size());
+                assertEquals(2, reader.getDamagedTiles().get(0).getX());
+                assertEquals(1, reader.getDamagedTiles().get(0).getY());
+
+                ExecutorService executor = Executors.newFixedThreadPool(2);
+
+                try {
+                    List<OzfDamagedTile> damagedTiles = reader.validate(executor);
+
+                    assertEquals(1, damagedTiles.size());
+                    assertEquals(0, damagedTiles.get(0).getImageIndex());
+                    assertEquals(2, damagedTiles.get(0).getX());
+                    assertEquals(1, damagedTiles.get(0).getY());
+                } finally {
+                    executor.shutdown();
+                }
+            }
+
+            try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+                OzfImageReader reader = new OzfImageReader(null);
+
+                reader.setInput(is);
+
+                assertTrue(reader.validate(Runnable::run).isEmpty());
+            }
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    private static class IIOReadUpdateAdapter implements IIOReadUpdateListener {
+        @Override
+        public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage theImage) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass, int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width, int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+        }
+    }
+
+    private static class IIOReadProgressAdapter implements IIOReadProgressListener {
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+
 //    /**
 //     * This test checks OZF4 image.
 //     */
@@ -230,6 +694,34 @@ public class OzfImageReadTest {
         }
     }
 
+    /**
+     * This test checks that a damaged OZF3 file is not taken for an OZF4 one.
+     */
+    @Test
+    public void readTruncatedOzf3() throws IOException {
+        File file = Files.createTempFile("imageio-ozf", ".ozf3").toFile();
+
+        try {
+            Files.copy(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() - 1);
+            }
+
+            try (ImageInputStream is = new FileImageInputStream(file)) {
+                ImageReader reader = new OzfImageReader(null);
+
+                reader.setInput(is);
+
+                IOException e = assertThrows(IOException.class, () -> reader.getNumImages(false));
+
+                assertFalse(e.getMessage().contains("ozf4"));
+            }
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
     /**
      * This test checks "corrupted" OZF2 file.
      * <p>
@@ -3,6 +3,7 @@ package com.github.nikolaybespalov.imageioozf;
 import com.github.davidcarboni.ResourceUtils;
 import org.junit.Test;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
 import java.io.IOException;
 import java.util.Locale;
@@ -15,6 +16,7 @@ public class OzfImageReaderSpiTest {
     public void testGetImageReader() throws IOException {
         assertTrue(ImageIO.getImageReadersBySuffix("ozf2").hasNext());
         assertTrue(ImageIO.getImageReadersBySuffix("ozf3").hasNext());
+        assertFalse(ImageIO.getImageReadersBySuffix("ozf4").hasNext());
 
         assertTrue(ImageIO.getImageReadersByFormatName("OziExplorer Image File").hasNext());
         assertEquals("OziExplorer Image File Reader", ImageIO.getImageReadersByFormatName("OziExplorer Image File").next().getOriginatingProvider().getDescription(Locale.getDefault()));
@@ -22,13 +24,16 @@ public class OzfImageReaderSpiTest {
         
         assertTrue(ImageIO.getImageReadersByMIMEType("image/ozf2").hasNext());
         assertTrue(ImageIO.getImageReadersByMIMEType("image/ozf3").hasNext());
+        assertFalse(ImageIO.getImageReadersByMIMEType("image/ozf4").hasNext());
 
         // Checks ability to read from a File.
         assertNotNull(ImageIO.read(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2")));
         assertNotNull(ImageIO.read(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3")));
 
-        // Checks if a .ozf4 cannot be read.
-        assertThrows(IOException.class, () -> ImageIO.read(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf4")));
+        // Checks if a .ozf4 is recognized, but cannot be read.
+        IIOException e = assertThrows(IIOException.class, () -> ImageIO.read(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf4")));
+
+        assertEquals("ozf4 is not supported!", e.getMessage());
 
         // Checks not .ozf
         assertNull(ImageIO.read(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/test.txt")));
@@ -0,0 +1,269 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Testing writing capabilities.
+ */
+public class OzfImageWriterTest {
+
+    @Test
+    public void testWriteIndexedOzf2() throws IOException {
+        checkIndexed(false);
+    }
+
+    @Test
+    public void testWriteIndexedOzf3() throws IOException {
+        checkIndexed(true);
+    }
+
+    /**
+     * A palette image is written as is.
+     */
+    private static void checkIndexed(boolean encrypted) throws IOException {
+        BufferedImage image = createIndexedImage(1000, 700);
+
+        File file = write(image, encrypted);
+
+        try (ImageInputStream is = new FileImageInputStream(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            // 1000, 500, 250, 125, 63 and two thumbnails
+            assertEquals(5, reader.getNumImages(false));
+            assertEquals(1000, reader.getWidth(0));
+            assertEquals(700, reader.getHeight(0));
+            assertEquals(63, reader.getWidth(4));
+            assertEquals(2, reader.getNumThumbnails(0));
+            assertEquals(300, reader.getThumbnailWidth(0, 0));
+            assertEquals(210, reader.getThumbnailHeight(0, 0));
+            assertEquals(130, reader.getThumbnailWidth(0, 1));
+
+            BufferedImage read = reader.read(0);
+
+            IndexColorModel cm = (IndexColorModel) read.getColorModel();
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals(image.getRaster().getSample(x, y, 0), read.getRaster().getSample(x, y, 0));
+                }
+            }
+
+            assertEquals(((IndexColorModel) image.getColorModel()).getRGB(7), cm.getRGB(7));
+
+            BufferedImage half = reader.read(1);
+
+            assertEquals(image.getRaster().getSample(2, 2, 0), half.getRaster().getSample(1, 1, 0));
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * An RGB image with a few colors keeps them exactly.
+     */
+    @Test
+    public void testWriteFewColors() throws IOException {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x / 10) * 0x0A0B0C + y / 25);
+            }
+        }
+
+        File file = write(image, false);
+
+        try {
+            BufferedImage read = ImageIO.read(file);
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    assertEquals(image.getRGB(x, y), read.getRGB(x, y));
+                }
+            }
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * An RGB image with a lot of colors is quantized.
+     */
+    @Test
+    public void testWriteManyColors() throws IOException {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_3BYTE_BGR);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x << 16 | y << 8 | (x + y) / 2);
+            }
+        }
+
+        File file = write(image, true);
+
+        try {
+            BufferedImage read = ImageIO.read(file);
+
+            assertEquals(256, read.getWidth());
+
+            for (int y = 0; y < image.getHeight(); y += 17) {
+                for (int x = 0; x < image.getWidth(); x += 13) {
+                    int expected = image.getRGB(x, y);
+                    int actual = read.getRGB(x, y);
+
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        assertTrue(Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF)) < 48);
+                    }
+                }
+            }
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        // only the size is looked at before the image is rejected
+        assertThrows(IllegalArgumentException.class, () -> write(createLargeImage(100000, 100000)));
+        assertThrows(IllegalArgumentException.class, () -> write(createLargeImage(3000000, 1)));
+    }
+
+    @Test
+    public void testUnsupportedParams() throws IOException {
+        ImageWriter writer = new OzfImageWriter(null);
+
+        try (ImageOutputStream os = new MemoryCacheImageOutputStream(new ByteArrayOutputStream())) {
+            writer.setOutput(os);
+
+            IIOImage image = new IIOImage(createIndexedImage(65, 64), null, null);
+
+            ImageWriteParam region = writer.getDefaultWriteParam();
+
+            region.setSourceRegion(new Rectangle(0, 0, 10, 10));
+
+            ImageWriteParam subsampling = writer.getDefaultWriteParam();
+
+            subsampling.setSourceSubsampling(2, 2, 0, 0);
+
+            ImageWriteParam bands = writer.getDefaultWriteParam();
+
+            bands.setSourceBands(new int[]{0});
+
+            assertThrows(UnsupportedOperationException.class, () -> writer.write(null, image, region));
+            assertThrows(UnsupportedOperationException.class, () -> writer.write(null, image, subsampling));
+            assertThrows(UnsupportedOperationException.class, () -> writer.write(null, image, bands));
+        }
+    }
+
+    private static BufferedImage createLargeImage(int width, int height) {
+        return new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY) {
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+        };
+    }
+
+    private static void write(BufferedImage image) throws IOException {
+        ImageWriter writer = new OzfImageWriter(null);
+
+        try (ImageOutputStream os = new MemoryCacheImageOutputStream(new ByteArrayOutputStream())) {
+            writer.setOutput(os);
+            writer.write(image);
+        }
+    }
+
+    @Test
+    public void testImageIO() throws IOException {
+        assertTrue(ImageIO.getImageWritersBySuffix("ozf2").hasNext());
+        assertTrue(ImageIO.getImageWritersBySuffix("ozf3").hasNext());
+        assertTrue(ImageIO.getImageWritersByMIMEType("image/ozf2").hasNext());
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("OziExplorer Image File").next();
+
+        assertEquals("OziExplorer Image File Writer", writer.getOriginatingProvider().getDescription(null));
+        assertTrue(writer.getDefaultWriteParam() instanceof OzfImageWriteParam);
+        assertFalse(writer.getOriginatingProvider().isStandardImageMetadataFormatSupported());
+
+        File file = Files.createTempFile("imageio-ozf", ".ozf2").toFile();
+
+        try {
+            assertTrue(ImageIO.write(createIndexedImage(65, 64), "OziExplorer Image File", file));
+
+            BufferedImage read = ImageIO.read(file);
+
+            assertEquals(65, read.getWidth());
+            assertEquals(64, read.getHeight());
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    private static BufferedImage createIndexedImage(int width, int height) {
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+
+        for (int i = 0; i < 256; i++) {
+            r[i] = (byte) i;
+            g[i] = (byte) (255 - i);
+            b[i] = (byte) (i * 7);
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, 256, r, g, b));
+
+        Random random = new Random(42);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.getRaster().setSample(x, y, 0, (x / 3 + y % 5 + (random.nextInt(20) == 0 ? 100 : 0)) % 256);
+            }
+        }
+
+        return image;
+    }
+
+    private static File write(BufferedImage image, boolean encrypted) throws IOException {
+        File file = Files.createTempFile("imageio-ozf", encrypted ? ".ozf3" : ".ozf2").toFile();
+
+        ImageWriter writer = new OzfImageWriter(null);
+
+        OzfImageWriteParam param = (OzfImageWriteParam) writer.getDefaultWriteParam();
+
+        param.setEncrypted(encrypted);
+
+        try (ImageOutputStream os = new FileImageOutputStream(file)) {
+            writer.setOutput(os);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+
+        return file;
+    }
+}
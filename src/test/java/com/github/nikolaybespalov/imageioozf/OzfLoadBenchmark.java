@@ -0,0 +1,623 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Load test of tile serving: many clients pan and zoom over a large map at once, every one as fast as it can.
+ * <p>
+ * {@code OzfLoadBenchmark [--file map.ozf3] [--size 8192] [--clients 64] [--virtual] [--seconds 10] [--warmup 2]
+ * [--mode stream,mmap,preload,source] [--cache 0,256] [--workload mixed]}
+ * <p>
+ * Without {@code --file} a synthetic map of {@code --size} pixels square is written to a temporary file. Every client
+ * keeps a 1024x768 viewport, mostly pans it by up to a tile and sometimes zooms in or out by one zoom level. The
+ * {@code tiles} workload reads the tiles under the viewport one by one, {@code regions} reads the viewport with one
+ * {@code read}, {@code mixed} picks one of them at random for every move. Clients run on virtual threads with
+ * {@code --virtual} (if the JDK has them), on platform threads otherwise.
+ * <p>
+ * Every combination of the modes and cache sizes (in MB, 0 for no cache) is measured in turn:
+ * <ul>
+ * <li>{@code stream} - one reader on a {@link FileImageInputStream} shared by all clients</li>
+ * <li>{@code mmap} - one reader on a memory mapped file shared by all clients</li>
+ * <li>{@code preload} - one reader with all zoom levels preloaded, shared by all clients</li>
+ * <li>{@code source} - {@link OzfTileSource}, regions are read tile by tile</li>
+ * </ul>
+ * Latencies are kept in log-linear histograms in the manner of HdrHistogram (within 1/16 of the value), one per client,
+ * merged at the end, so recording adds no contention of its own.
+ */
+public class OzfLoadBenchmark {
+    private static final int VIEWPORT_WIDTH = 1024;
+    private static final int VIEWPORT_HEIGHT = 768;
+
+    private enum Mode {
+        STREAM, MMAP, PRELOAD, SOURCE
+    }
+
+    private enum Workload {
+        TILES, REGIONS, MIXED
+    }
+
+    /**
+     * What a client reads from, thread-safe.
+     */
+    private interface Target extends Closeable {
+        int getNumImages();
+
+        int getWidth(int imageIndex);
+
+        int getHeight(int imageIndex);
+
+        void readTile(int imageIndex, int x, int y) throws IOException;
+
+        void readRegion(int imageIndex, Rectangle region) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File file = null;
+        int size = 8192;
+        int clients = 64;
+        boolean virtual = false;
+        int seconds = 10;
+        int warmup = 2;
+        List<Mode> modes = Arrays.asList(Mode.values());
+        List<Integer> cacheSizes = Arrays.asList(0, 256);
+        Workload workload = Workload.MIXED;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--file":
+                        file = new File(args[++i]);
+                        break;
+                    case "--size":
+                        size = Integer.parseInt(args[++i]);
+                        break;
+                    case "--clients":
+                        clients = Integer.parseInt(args[++i]);
+                        break;
+                    case "--virtual":
+                        virtual = true;
+                        break;
+                    case "--seconds":
+                        seconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++i]);
+                        break;
+                    case "--mode":
+                        modes = new ArrayList<>();
+
+                        for (String mode : args[++i].split(",")) {
+                            modes.add(Mode.valueOf(mode.toUpperCase(Locale.ROOT)));
+                        }
+                        break;
+                    case "--cache":
+                        cacheSizes = new ArrayList<>();
+
+                        for (String cacheSize : args[++i].split(",")) {
+                            cacheSizes.add(Integer.parseInt(cacheSize));
+                        }
+                        break;
+                    case "--workload":
+                        workload = Workload.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println("usage: OzfLoadBenchmark [--file map.ozf3] [--size 8192] [--clients 64] [--virtual] [--seconds 10] [--warmup 2] "
+                    + "[--mode stream,mmap,preload,source] [--cache 0,256] [--workload tiles|regions|mixed]");
+            System.exit(1);
+        }
+
+        boolean generated = file == null;
+
+        if (generated) {
+            file = File.createTempFile("imageio-ozf-load", ".ozf3");
+
+            long start = System.nanoTime();
+
+            generate(file, size);
+
+            System.out.println(String.format(Locale.ROOT, "generated %dx%d map, %.1f MB in %.1f s", size, size, file.length() / 1e6, (System.nanoTime() - start) / 1e9));
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%d clients on %s threads, %s workload, %d s each", clients, virtual ? "virtual" : "platform", workload.name().toLowerCase(Locale.ROOT), seconds));
+        System.out.println(String.format(Locale.ROOT, "%-8s %6s %-7s %9s %10s %9s %9s %9s %9s", "mode", "cache", "op", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+
+        try {
+            for (Mode mode : modes) {
+                for (int cacheSize : cacheSizes) {
+                    OzfTileCache tileCache = cacheSize > 0 ? new OzfTileCache(cacheSize * 1024L * 1024) : null;
+
+                    try (Target target = open(mode, file, tileCache)) {
+                        ExecutorService executor = newExecutor(virtual, clients);
+
+                        try {
+                            run(target, executor, clients, workload, warmup, seconds, mode, cacheSize);
+                        } finally {
+                            executor.shutdown();
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (generated) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    private static void run(Target target, ExecutorService executor, int clients, Workload workload, int warmup, int seconds, Mode mode, int cacheSize) throws Exception {
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Future<Histogram[]>> futures = new ArrayList<>();
+
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(() -> new Client(target, workload).run(measureStart, end)));
+        }
+
+        Histogram tiles = new Histogram();
+        Histogram regions = new Histogram();
+
+        for (Future<Histogram[]> future : futures) {
+            Histogram[] histograms = future.get();
+
+            tiles.add(histograms[0]);
+            regions.add(histograms[1]);
+        }
+
+        report(mode, cacheSize, "tile", tiles, seconds);
+        report(mode, cacheSize, "region", regions, seconds);
+    }
+
+    private static void report(Mode mode, int cacheSize, String op, Histogram histogram, int seconds) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-8s %6s %-7s %9d %10.0f %9.2f %9.2f %9.2f %9.2f",
+                mode.name().toLowerCase(Locale.ROOT), cacheSize > 0 ? cacheSize + "M" : "off", op, histogram.getCount(),
+                (double) histogram.getCount() / seconds, histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6,
+                histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6));
+    }
+
+    /**
+     * A user panning and zooming a viewport over the map.
+     */
+    private static final class Client {
+        private final Target target;
+        private final Workload workload;
+        private final Random random = new Random(ThreadLocalRandom.current().nextLong());
+        private final Histogram tiles = new Histogram();
+        private final Histogram regions = new Histogram();
+        private int level;
+        // center of the viewport in pixels of the level
+        private int cx;
+        private int cy;
+
+        Client(Target target, Workload workload) {
+            this.target = target;
+            this.workload = workload;
+            this.level = random.nextInt(target.getNumImages());
+            this.cx = random.nextInt(target.getWidth(level));
+            this.cy = random.nextInt(target.getHeight(level));
+        }
+
+        Histogram[] run(long measureStart, long end) throws IOException {
+            long now;
+
+            while ((now = System.nanoTime()) < end) {
+                boolean measured = now >= measureStart;
+
+                move();
+
+                Rectangle viewport = new Rectangle(cx - VIEWPORT_WIDTH / 2, cy - VIEWPORT_HEIGHT / 2, VIEWPORT_WIDTH, VIEWPORT_HEIGHT)
+                        .intersection(new Rectangle(0, 0, target.getWidth(level), target.getHeight(level)));
+
+                if (workload == Workload.REGIONS || workload == Workload.MIXED && random.nextBoolean()) {
+                    long start = System.nanoTime();
+
+                    target.readRegion(level, viewport);
+
+                    if (measured) {
+                        regions.record(System.nanoTime() - start);
+                    }
+                } else {
+                    for (int y = viewport.y / OzfTileCodec.TILE_HEIGHT; y <= (viewport.y + viewport.height - 1) / OzfTileCodec.TILE_HEIGHT; y++) {
+                        for (int x = viewport.x / OzfTileCodec.TILE_WIDTH; x <= (viewport.x + viewport.width - 1) / OzfTileCodec.TILE_WIDTH; x++) {
+                            long start = System.nanoTime();
+
+                            target.readTile(level, x, y);
+
+                            if (measured) {
+                                tiles.record(System.nanoTime() - start);
+                            }
+                        }
+                    }
+                }
+            }
+
+            return new Histogram[]{tiles, regions};
+        }
+
+        /**
+         * Pans by up to a tile 9 times of 10, zooms in or out otherwise, keeping the point under the center.
+         */
+        private void move() {
+            int newLevel = level;
+
+            if (random.nextInt(10) == 0) {
+                newLevel = Math.max(0, Math.min(target.getNumImages() - 1, level + (random.nextBoolean() ? 1 : -1)));
+            }
+
+            if (newLevel != level) {
+                cx = (int) ((long) cx * target.getWidth(newLevel) / target.getWidth(level));
+                cy = (int) ((long) cy * target.getHeight(newLevel) / target.getHeight(level));
+                level = newLevel;
+            } else {
+                cx += random.nextInt(2 * OzfTileCodec.TILE_WIDTH + 1) - OzfTileCodec.TILE_WIDTH;
+                cy += random.nextInt(2 * OzfTileCodec.TILE_HEIGHT + 1) - OzfTileCodec.TILE_HEIGHT;
+            }
+
+            cx = Math.max(0, Math.min(target.getWidth(level) - 1, cx));
+            cy = Math.max(0, Math.min(target.getHeight(level) - 1, cy));
+        }
+    }
+
+    private static Target open(Mode mode, File file, OzfTileCache tileCache) throws IOException {
+        if (mode == Mode.SOURCE) {
+            return new SourceTarget(new OzfTileSource(file, tileCache));
+        }
+
+        ImageInputStream is = mode == Mode.MMAP ? new MappedImageInputStream(file) : new FileImageInputStream(file);
+
+        OzfImageReader reader = new OzfImageReader(null);
+
+        reader.setInput(is);
+
+        if (tileCache != null) {
+            reader.setTileCache(tileCache, file.getPath());
+        }
+
+        if (mode == Mode.PRELOAD) {
+            int[] imageIndexes = new int[reader.getNumImages(false)];
+
+            for (int i = 0; i < imageIndexes.length; i++) {
+                imageIndexes[i] = i;
+            }
+
+            reader.preload(Long.MAX_VALUE, imageIndexes);
+        }
+
+        return new ReaderTarget(reader, is);
+    }
+
+    /**
+     * One reader shared by all clients, taken by one of them at a time.
+     */
+    private static final class ReaderTarget implements Target {
+        private final OzfImageReader reader;
+        private final ImageInputStream stream;
+        // not synchronized, that would pin virtual threads
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int[] widths;
+        private final int[] heights;
+
+        ReaderTarget(OzfImageReader reader, ImageInputStream stream) throws IOException {
+            this.reader = reader;
+            this.stream = stream;
+            this.widths = new int[reader.getNumImages(false)];
+            this.heights = new int[widths.length];
+
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = reader.getWidth(i);
+                heights[i] = reader.getHeight(i);
+            }
+        }
+
+        @Override
+        public int getNumImages() {
+            return widths.length;
+        }
+
+        @Override
+        public int getWidth(int imageIndex) {
+            return widths[imageIndex];
+        }
+
+        @Override
+        public int getHeight(int imageIndex) {
+            return heights[imageIndex];
+        }
+
+        @Override
+        public void readTile(int imageIndex, int x, int y) throws IOException {
+            lock.lock();
+
+            try {
+                reader.readTileRaster(imageIndex, x, y);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void readRegion(int imageIndex, Rectangle region) throws IOException {
+            ImageReadParam param = new ImageReadParam();
+
+            param.setSourceRegion(region);
+
+            lock.lock();
+
+            try {
+                reader.readRaster(imageIndex, param);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.dispose();
+            stream.close();
+        }
+    }
+
+    private static final class SourceTarget implements Target {
+        private final OzfTileSource tileSource;
+
+        SourceTarget(OzfTileSource tileSource) {
+            this.tileSource = tileSource;
+        }
+
+        @Override
+        public int getNumImages() {
+            return tileSource.getNumImages();
+        }
+
+        @Override
+        public int getWidth(int imageIndex) {
+            return tileSource.getWidth(imageIndex);
+        }
+
+        @Override
+        public int getHeight(int imageIndex) {
+            return tileSource.getHeight(imageIndex);
+        }
+
+        @Override
+        public void readTile(int imageIndex, int x, int y) throws IOException {
+            tileSource.readTile(imageIndex, x, y);
+        }
+
+        @Override
+        public void readRegion(int imageIndex, Rectangle region) throws IOException {
+            for (int y = region.y / OzfTileCodec.TILE_HEIGHT; y <= (region.y + region.height - 1) / OzfTileCodec.TILE_HEIGHT; y++) {
+                for (int x = region.x / OzfTileCodec.TILE_WIDTH; x <= (region.x + region.width - 1) / OzfTileCodec.TILE_WIDTH; x++) {
+                    tileSource.readTile(imageIndex, x, y);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            tileSource.close();
+        }
+    }
+
+    /**
+     * Latencies in nanoseconds: values are kept with their highest 5 bits, so every bucket is 1/16 of its value wide.
+     * Not thread-safe, every client has its own.
+     */
+    private static final class Histogram {
+        private static final int SUB_BUCKETS = 16;
+        private final long[] counts = new long[60 * SUB_BUCKETS + 2 * SUB_BUCKETS];
+        private long count = 0;
+        private long max = 0;
+
+        void record(long value) {
+            value = Math.max(0, value);
+
+            counts[index(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the percentile, or 0 if nothing was recorded
+         */
+        long getPercentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+
+            for (int i = 0; i < counts.length; i++) {
+                rank -= counts[i];
+
+                if (rank <= 0) {
+                    return Math.min(max, upperBound(i));
+                }
+            }
+
+            return 0;
+        }
+
+        private static int index(long value) {
+            int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - 4);
+
+            return shift == 0 ? (int) value : shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        private static long upperBound(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+
+            int shift = index / SUB_BUCKETS - 1;
+
+            return ((long) (index - shift * SUB_BUCKETS + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Memory mapped file, up to 2 GB.
+     */
+    private static final class MappedImageInputStream extends ImageInputStreamImpl {
+        private final ByteBuffer buffer;
+
+        MappedImageInputStream(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("the file is too large to map!");
+                }
+
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        @Override
+        public int read() {
+            bitOffset = 0;
+
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+
+            return buffer.get((int) streamPos++) & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            bitOffset = 0;
+
+            if (streamPos >= buffer.limit()) {
+                return -1;
+            }
+
+            int n = (int) Math.min(len, buffer.limit() - streamPos);
+
+            ByteBuffer slice = buffer.duplicate();
+
+            slice.position((int) streamPos);
+            slice.get(b, off, n);
+
+            streamPos += n;
+
+            return n;
+        }
+
+        @Override
+        public long length() {
+            return buffer.limit();
+        }
+    }
+
+    /**
+     * Writes a map-like image: blocks of a few colors crossed by roads, with some noise, so that tiles compress about
+     * as well as a real map.
+     */
+    private static void generate(File file, int size) throws IOException {
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+
+        for (int i = 0; i < 256; i++) {
+            r[i] = (byte) i;
+            g[i] = (byte) (i * 3);
+            b[i] = (byte) (255 - i);
+        }
+
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, 256, r, g, b));
+
+        byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+
+        Random random = new Random(42);
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int pixel = (x / 211 * 7 + y / 173 * 13) % 24;
+
+                if (x % 97 < 3 || y % 113 < 3) {
+                    pixel = 250;
+                } else if (random.nextInt(8) == 0) {
+                    pixel = 24 + random.nextInt(64);
+                }
+
+                pixels[y * size + x] = (byte) pixel;
+            }
+        }
+
+        OzfImageWriter writer = new OzfImageWriter(null);
+
+        OzfImageWriteParam param = (OzfImageWriteParam) writer.getDefaultWriteParam();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        try (ImageOutputStream os = new FileImageOutputStream(file)) {
+            param.setEncrypted(true);
+            param.setExecutor(executor);
+
+            writer.setOutput(os);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static ExecutorService newExecutor(boolean virtual, int clients) {
+        if (virtual) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("no virtual threads, using platform threads");
+            }
+        }
+
+        return Executors.newFixedThreadPool(clients);
+    }
+}
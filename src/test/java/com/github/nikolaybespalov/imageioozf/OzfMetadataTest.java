@@ -0,0 +1,128 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfMetadataTest {
+
+    @Test
+    public void testStreamMetadata() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"))) {
+            OzfImageReader reader = new OzfImageReader(new OzfImageReaderSpi());
+
+            reader.setInput(is);
+
+            OzfStreamMetadata metadata = (OzfStreamMetadata) reader.getStreamMetadata();
+
+            assertEquals("ozf3", metadata.getVersion());
+            assertEquals(reader.getNumImages(false), metadata.getNumZoomLevels());
+            assertEquals(reader.getNumThumbnails(0), metadata.getNumThumbnails());
+            assertTrue(metadata.isReadOnly());
+            assertNotNull(metadata.getMetadataFormat(OzfStreamMetadataFormat.NATIVE_FORMAT_NAME));
+
+            Node root = metadata.getAsTree(OzfStreamMetadataFormat.NATIVE_FORMAT_NAME);
+
+            assertEquals("ozf3", attribute(root, "version"));
+
+            Node zoomLevels = root.getFirstChild();
+
+            assertEquals(metadata.getNumZoomLevels(), zoomLevels.getChildNodes().getLength());
+
+            for (int i = 0; i < metadata.getNumZoomLevels(); i++) {
+                Node zoomLevel = zoomLevels.getChildNodes().item(i);
+
+                assertEquals(reader.getWidth(i), metadata.getWidth(i));
+                assertEquals(reader.getHeight(i), metadata.getHeight(i));
+                assertEquals(Integer.toString(reader.getWidth(i)), attribute(zoomLevel, "width"));
+                assertEquals(Integer.toString(reader.getHeight(i)), attribute(zoomLevel, "height"));
+
+                OzfImageMetadata imageMetadata = (OzfImageMetadata) reader.getImageMetadata(i);
+
+                assertEquals(imageMetadata.getXTiles(), metadata.getXTiles(i));
+                assertEquals(imageMetadata.getYTiles(), metadata.getYTiles(i));
+                assertTrue(metadata.getXTiles(i) * 64 >= metadata.getWidth(i));
+                assertTrue(metadata.getYTiles(i) * 64 >= metadata.getHeight(i));
+            }
+
+            assertThrows(IllegalArgumentException.class, () -> metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName));
+            assertThrows(IllegalStateException.class, metadata::reset);
+        }
+    }
+
+    @Test
+    public void testImageMetadata() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2"))) {
+            OzfImageReader reader = new OzfImageReader(new OzfImageReaderSpi());
+
+            reader.setInput(is);
+
+            OzfImageMetadata metadata = (OzfImageMetadata) reader.getImageMetadata(0);
+
+            assertEquals(reader.getWidth(0), metadata.getWidth());
+            assertEquals(reader.getHeight(0), metadata.getHeight());
+            assertEquals(metadata.getXTiles() * metadata.getYTiles(), metadata.getCompressedTileSizes().length);
+
+            long compressedSize = 0;
+
+            for (int size : metadata.getCompressedTileSizes()) {
+                assertTrue(size > 0);
+
+                compressedSize += size;
+            }
+
+            assertEquals(compressedSize, metadata.getCompressedSize());
+            assertEquals(metadata.getCompressedTileSizes()[1], metadata.getCompressedTileSize(1, 0));
+            assertThrows(IllegalArgumentException.class, () -> metadata.getCompressedTileSize(metadata.getXTiles(), 0));
+
+            Node root = metadata.getAsTree(OzfImageMetadataFormat.NATIVE_FORMAT_NAME);
+
+            assertEquals(Long.toString(compressedSize), attribute(root, "compressedSize"));
+            assertEquals("64", attribute(root, "tileWidth"));
+            assertEquals(256, root.getFirstChild().getChildNodes().getLength());
+            assertArrayEquals(metadata.getCompressedTileSizes(), (int[]) ((IIOMetadataNode) root.getLastChild()).getUserObject());
+
+            IIOMetadataNode standard = (IIOMetadataNode) metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+
+            assertEquals("Deflate", attribute(standard.getElementsByTagName("CompressionTypeName").item(0), "value"));
+            assertEquals("Index", attribute(standard.getElementsByTagName("SampleFormat").item(0), "value"));
+            assertEquals(256, standard.getElementsByTagName("PaletteEntry").getLength());
+        }
+    }
+
+    @Test
+    public void testIgnoreMetadata() throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2"))) {
+            OzfImageReader reader = new OzfImageReader(new OzfImageReaderSpi());
+
+            reader.setInput(is, false, true);
+
+            assertNull(reader.getStreamMetadata());
+            assertNull(reader.getImageMetadata(0));
+        }
+    }
+
+    @Test
+    public void testSpiFormats() {
+        OzfImageReaderSpi spi = new OzfImageReaderSpi();
+
+        assertSame(OzfStreamMetadataFormat.getInstance(), spi.getStreamMetadataFormat(OzfStreamMetadataFormat.NATIVE_FORMAT_NAME));
+        assertSame(OzfImageMetadataFormat.getInstance(), spi.getImageMetadataFormat(OzfImageMetadataFormat.NATIVE_FORMAT_NAME));
+        assertNotNull(spi.getImageMetadataFormat(IIOMetadataFormatImpl.standardMetadataFormatName));
+    }
+
+    private static String attribute(Node node, String name) {
+        NamedNodeMap attributes = node.getAttributes();
+
+        return attributes.getNamedItem(name).getNodeValue();
+    }
+}
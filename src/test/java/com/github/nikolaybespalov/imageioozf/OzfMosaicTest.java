@@ -0,0 +1,159 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfMosaicTest {
+
+    @Test
+    public void testRead() throws IOException {
+        File ozf2 = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2");
+        File ozf3 = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3");
+
+        BufferedImage left = readImage(ozf2);
+        BufferedImage right = readImage(ozf3);
+
+        int gap = 100;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try (OzfCatalog catalog = new OzfCatalog(1, Long.MAX_VALUE, new OzfTileCache(1 << 20))) {
+            OzfMosaic mosaic = new OzfMosaic(catalog);
+
+            mosaic.setExecutor(executor);
+            mosaic.add("left", ozf2, 0, 0);
+            mosaic.add("right", ozf3, left.getWidth() + gap, 10);
+
+            assertEquals(2, mosaic.getNumSheets());
+            assertEquals(left.getWidth() + gap + right.getWidth(), mosaic.getWidth());
+            assertEquals(Math.max(left.getHeight(), 10 + right.getHeight()), mosaic.getHeight());
+            assertThrows(IllegalArgumentException.class, () -> mosaic.add("left", ozf2, 0, 0));
+
+            // a window across both sheets and the gap between them
+            Rectangle window = new Rectangle(left.getWidth() - 150, 200, 400, 300);
+
+            assertEquals(Arrays.asList("left", "right"), mosaic.getSheets(window));
+
+            ImageReadParam param = new ImageReadParam();
+
+            param.setSourceRegion(window);
+
+            assertPixels(mosaic.read(param), window, 1, 1, left, right, gap);
+
+            param.setSourceSubsampling(3, 2, 1, 1);
+
+            BufferedImage subsampled = mosaic.read(param);
+
+            assertEquals((window.width - 1 + 2) / 3, subsampled.getWidth());
+            assertEquals((window.height - 1 + 1) / 2, subsampled.getHeight());
+            assertPixels(subsampled, new Rectangle(window.x + 1, window.y + 1, window.width - 1, window.height - 1), 3, 2, left, right, gap);
+
+            BufferedImage lastTile = mosaic.readTile(mosaic.getXTiles() - 1, mosaic.getYTiles() - 1);
+
+            assertEquals(mosaic.getWidth() - (mosaic.getXTiles() - 1) * OzfMosaic.TILE_SIZE, lastTile.getWidth());
+            assertThrows(IllegalArgumentException.class, () -> mosaic.readTile(mosaic.getXTiles(), 0));
+
+            // only recently touched sheets stay open
+            assertTrue(catalog.getOpenReaders() <= 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubsampledRead() throws IOException {
+        File ozf2 = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2");
+        File ozf3 = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3");
+
+        int xPeriod = 7;
+        int yPeriod = 5;
+        int rightX = readImage(ozf2).getWidth() + 13;
+        int rightY = 11;
+
+        // the sheets read on their own, on the sampling grid of the mosaic
+        BufferedImage left = readImage(ozf2, xPeriod, yPeriod, 0, 0);
+        BufferedImage right = readImage(ozf3, xPeriod, yPeriod, (xPeriod - rightX % xPeriod) % xPeriod, (yPeriod - rightY % yPeriod) % yPeriod);
+
+        try (OzfCatalog catalog = new OzfCatalog(2, Long.MAX_VALUE, null)) {
+            OzfMosaic mosaic = new OzfMosaic(catalog);
+
+            mosaic.add("left", ozf2, 0, 0);
+            mosaic.add("right", ozf3, rightX, rightY);
+
+            ImageReadParam param = new ImageReadParam();
+
+            param.setSourceSubsampling(xPeriod, yPeriod, 0, 0);
+
+            BufferedImage image = mosaic.read(param);
+
+            assertSubimage(left, image, 0, 0);
+            assertSubimage(right, image, (rightX + xPeriod - 1) / xPeriod, (rightY + yPeriod - 1) / yPeriod);
+        }
+    }
+
+    private static void assertSubimage(BufferedImage expected, BufferedImage image, int x0, int y0) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), image.getRGB(x0 + x, y0 + y));
+            }
+        }
+    }
+
+    private static void assertPixels(BufferedImage image, Rectangle region, int xPeriod, int yPeriod, BufferedImage left, BufferedImage right, int gap) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int sx = region.x + x * xPeriod;
+                int sy = region.y + y * yPeriod;
+
+                int expected = 0;
+
+                if (sx < left.getWidth()) {
+                    if (sy < left.getHeight()) {
+                        expected = left.getRGB(sx, sy);
+                    }
+                } else if (sx >= left.getWidth() + gap && sy >= 10 && sy - 10 < right.getHeight()) {
+                    expected = right.getRGB(sx - left.getWidth() - gap, sy - 10);
+                }
+
+                assertEquals(expected, image.getRGB(x, y));
+            }
+        }
+    }
+
+    private static BufferedImage readImage(File file, int xPeriod, int yPeriod, int xOffset, int yOffset) throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            param.setSourceSubsampling(xPeriod, yPeriod, xOffset, yOffset);
+
+            return reader.read(0, param);
+        }
+    }
+
+    private static BufferedImage readImage(File file) throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            return reader.read(0);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OzfRawTileIteratorTest {
+
+    @Test
+    public void testOzf2() throws IOException {
+        checkRawTiles("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2");
+    }
+
+    @Test
+    public void testOzf3() throws IOException {
+        checkRawTiles("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3");
+    }
+
+    private static void checkRawTiles(String name) throws IOException {
+        try (ImageInputStream is = new FileImageInputStream(ResourceUtils.getFile(name))) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            int xTiles = (reader.getWidth(0) + 63) / 64;
+            int yTiles = (reader.getHeight(0) + 63) / 64;
+
+            Iterator<OzfRawTile> it = reader.readRawTiles(0);
+
+            int tiles = 0;
+            long lastOffset = -1;
+
+            while (it.hasNext()) {
+                OzfRawTile rawTile = it.next();
+
+                assertTrue(rawTile.getOffset() > lastOffset);
+
+                lastOffset = rawTile.getOffset();
+
+                // zlib header
+                assertEquals(0x78, rawTile.getData().get(0));
+
+                tiles++;
+            }
+
+            assertFalse(it.hasNext());
+            // ozf files may have an extra row or column of tiles
+            assertTrue(tiles >= xTiles * yTiles);
+
+            // the same data can be read tile by tile
+            Iterator<OzfRawTile> it2 = reader.readRawTiles(0);
+
+            OzfRawTile rawTile = it2.next();
+
+            ByteBuffer expected = reader.readRawTile(0, rawTile.getX(), rawTile.getY());
+
+            assertEquals(expected, rawTile.getData());
+        }
+    }
+}
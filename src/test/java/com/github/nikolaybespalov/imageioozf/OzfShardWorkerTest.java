@@ -0,0 +1,116 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfShardWorkerTest {
+
+    @Test
+    public void testQueueJobSource() throws IOException {
+        File file = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3");
+
+        Map<Point, byte[]> expected = new ConcurrentHashMap<>();
+
+        OzfImageMetadata metadata;
+
+        try (ImageInputStream is = new FileImageInputStream(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+            reader.readTiles(0, Runnable::run, (x, y, tile) -> expected.put(new Point(x, y), tile));
+
+            metadata = (OzfImageMetadata) reader.getImageMetadata(0);
+
+            assertThrows(IllegalArgumentException.class, () -> reader.readTiles(0, new Rectangle(0, 0, metadata.getXTiles() + 1, 1), Runnable::run, 1, (x, y, tile) -> {
+            }));
+        }
+
+        List<OzfShard> shards = OzfShard.split(file, 0, metadata.getXTiles(), metadata.getYTiles(), 3, 2);
+
+        assertEquals(metadata.getXTiles() * metadata.getYTiles(), shards.stream().mapToInt(OzfShard::getNumTiles).sum());
+        assertEquals(shards.get(1), OzfShard.parse(shards.get(1).toString()));
+
+        OzfShard missing = new OzfShard(new File("missing.ozf3"), 0, new Rectangle(0, 0, 1, 1));
+
+        OzfQueueJobSource jobSource = new OzfQueueJobSource(shards);
+
+        jobSource.add(missing);
+
+        Map<Point, byte[]> actual = new ConcurrentHashMap<>();
+
+        OzfShardWorker worker = new OzfShardWorker(jobSource, (shard, x, y, tile) -> {
+            assertTrue(shard.getTiles().contains(x, y));
+            // every tile is decoded exactly once
+            assertNull(actual.put(new Point(x, y), tile));
+        });
+
+        worker.setThreads(2);
+
+        OzfShardWorker.Statistics statistics = worker.run();
+
+        assertEquals(shards.size(), statistics.getShards());
+        assertEquals(1, statistics.getShardsFailed());
+        assertEquals(expected.size(), statistics.getTiles());
+        assertEquals(shards, jobSource.getCompleted());
+        assertEquals(Collections.singleton(missing), jobSource.getFailed().keySet());
+
+        assertEquals(expected.keySet(), actual.keySet());
+
+        for (Point p : expected.keySet()) {
+            assertArrayEquals(expected.get(p), actual.get(p));
+        }
+    }
+
+    @Test
+    public void testDirectoryJobSource() throws IOException {
+        File file = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2");
+
+        Path directory = Files.createTempDirectory("queue");
+
+        OzfDirectoryJobSource jobSource = new OzfDirectoryJobSource(directory);
+
+        jobSource.submit(OzfShard.split(file, 1, 4, 2, 2, 2));
+        jobSource.submit(Collections.singletonList(new OzfShard(file, 1, new Rectangle(100, 100, 1, 1))));
+        // the same shard twice
+        jobSource.submit(OzfShard.split(file, 1, 2, 2, 2, 2));
+
+        Files.write(directory.resolve("pending").resolve("bad.shard"), "bad".getBytes("UTF-8"));
+
+        assertEquals(5, jobSource.getPending().size());
+
+        OzfShardWorker worker = new OzfShardWorker(jobSource, (shard, x, y, tile) -> {
+        });
+
+        worker.setThreads(1);
+
+        OzfShardWorker.Statistics statistics = worker.run();
+
+        assertEquals(3, statistics.getShards());
+        assertEquals(1, statistics.getShardsFailed());
+        assertEquals(12, statistics.getTiles());
+
+        assertTrue(jobSource.getPending().isEmpty());
+        assertEquals(3, jobSource.getDone().size());
+
+        List<Path> failed = jobSource.getFailed();
+
+        assertEquals(2, failed.size());
+        assertTrue(new String(Files.readAllBytes(directory.resolve("failed").resolve("bad.shard")), "UTF-8").contains("bad shard"));
+        assertTrue(failed.remove(directory.resolve("failed").resolve("bad.shard")));
+        assertTrue(new String(Files.readAllBytes(failed.get(0)), "UTF-8").contains("bad tiles!"));
+    }
+}
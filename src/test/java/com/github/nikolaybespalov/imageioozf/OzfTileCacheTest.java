@@ -0,0 +1,115 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfTileCacheTest {
+
+    @Test
+    public void testGetPut() {
+        OzfTileCache cache = new OzfTileCache(1024 * 1024);
+
+        assertNull(cache.get("a", 0, 1, 2));
+
+        byte[] tile = new byte[4096];
+
+        cache.put("a", 0, 1, 2, tile);
+
+        assertSame(tile, cache.get("a", 0, 1, 2));
+        assertNull(cache.get("b", 0, 1, 2));
+        assertNull(cache.get("a", 1, 1, 2));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        cache.clear();
+
+        assertNull(cache.get("a", 0, 1, 2));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        OzfTileCache cache = new OzfTileCache(1024 * 1024);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("a", 0, i, 0, new byte[4096]);
+        }
+
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertTrue(cache.getSize() > cache.getMaxSize() / 2);
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        OzfTileCache cache = new OzfTileCache(1024 * 1024);
+        OzfCounters counters = new OzfCounters();
+
+        byte[] tile = new byte[4096];
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        int threads = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> cache.get("a", 0, 1, 2, counters, () -> {
+                    loads.incrementAndGet();
+
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+
+                    return tile;
+                })));
+            }
+
+            // everybody but the loader waits for the load
+            while (cache.getCoalesced() < threads - 1) {
+                Thread.sleep(1);
+            }
+
+            release.countDown();
+
+            for (Future<byte[]> future : futures) {
+                assertSame(tile, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(threads - 1, cache.getCoalesced());
+        assertEquals(threads - 1, counters.getCacheCoalesced());
+
+        // the loaded tile is cached
+        assertSame(tile, cache.get("a", 0, 1, 2, counters, () -> {
+            throw new AssertionError();
+        }));
+        assertEquals(1, counters.getCacheHits());
+
+        // a failed load is not cached
+        assertThrows(IOException.class, () -> cache.get("a", 0, 2, 2, counters, () -> {
+            throw new IOException();
+        }));
+        assertSame(tile, cache.get("a", 0, 2, 2, counters, () -> tile));
+    }
+}
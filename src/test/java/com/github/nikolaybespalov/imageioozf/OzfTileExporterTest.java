@@ -0,0 +1,112 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfTileExporterTest {
+
+    @Test
+    public void testExportToDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("imageio-ozf");
+
+        try {
+            OzfTileExporter exporter = new OzfTileExporter(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3"));
+
+            exporter.setThreads(3);
+
+            OzfTileExporter.Statistics statistics = exporter.export(directory.toFile());
+
+            // 2108x2048: zoom 4 is 9x8 tiles, zoom 3 is 5x4, zoom 2 is 3x2, zoom 1 is 2x1, zoom 0 is 1x1
+            assertEquals(101, statistics.getTiles());
+            assertEquals(101, statistics.getTilesWritten());
+            assertTrue(statistics.getCacheHits() > 0);
+
+            try (Stream<Path> files = Files.walk(directory)) {
+                assertEquals(101, files.filter(Files::isRegularFile).count());
+            }
+
+            BufferedImage tile = ImageIO.read(directory.resolve("4/8/7.png").toFile());
+
+            assertEquals(256, tile.getWidth());
+            assertEquals(256, tile.getHeight());
+
+            // the image ends at 2108 - 8 * 256 = 60
+            assertNotEquals(0, tile.getRGB(59, 0) >>> 24);
+            assertEquals(0, tile.getRGB(61, 0) >>> 24);
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    public void testExportToArchive() throws IOException {
+        File archive = Files.createTempFile("imageio-ozf", ".zip").toFile();
+
+        try {
+            OzfTileExporter exporter = new OzfTileExporter(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2"));
+
+            exporter.setTms(true);
+            exporter.setMinZoom(1);
+
+            exporter.export(archive);
+
+            // 499x250: zoom 1 is 2x1, rows are counted from the bottom; zoom 0 is skipped
+            try (ZipFile zip = new ZipFile(archive)) {
+                assertEquals(2, zip.size());
+                assertNotNull(zip.getEntry("1/0/1.png"));
+                assertNotNull(zip.getEntry("1/1/1.png"));
+            }
+        } finally {
+            Files.delete(archive.toPath());
+        }
+    }
+
+    @Test
+    public void testExplicitMaxZoom() throws IOException {
+        File archive = Files.createTempFile("imageio-ozf", ".zip").toFile();
+
+        try {
+            OzfTileExporter exporter = new OzfTileExporter(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2"));
+
+            exporter.setTms(true);
+
+            // 499x250 fits zoom 1, zoom 0 is still the image halved into a single tile
+            exporter.setMaxZoom(0);
+
+            assertEquals(1, exporter.export(archive).getTiles());
+
+            try (ZipFile zip = new ZipFile(archive)) {
+                assertEquals(1, zip.size());
+                assertNotNull(zip.getEntry("0/0/0.png"));
+            }
+
+            // zoom 2 is the image doubled: 998x500 is 4x2 tiles
+            exporter.setMaxZoom(2);
+
+            assertEquals(1 + 2 + 8, exporter.export(archive).getTiles());
+
+            try (ZipFile zip = new ZipFile(archive)) {
+                assertEquals(11, zip.size());
+                assertNotNull(zip.getEntry("2/3/3.png"));
+                assertNotNull(zip.getEntry("2/0/2.png"));
+                assertNull(zip.getEntry("2/0/1.png"));
+            }
+        } finally {
+            Files.delete(archive.toPath());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfTileIndexTest {
+
+    private static final int BACKGROUND = 3;
+
+    @Test
+    public void testIndex() throws IOException {
+        File file = writeSparseImage(false);
+
+        try (ImageInputStream is = new FileImageInputStream(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            OzfTileIndex index = OzfTileIndex.build(reader, Runnable::run);
+
+            assertEquals(reader.getNumImages(false), index.getNumImages());
+
+            ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+
+            index.write(sidecar);
+
+            OzfTileIndex loaded = OzfTileIndex.read(new ByteArrayInputStream(sidecar.toByteArray()));
+
+            int uniformTiles = 0;
+
+            for (int i = 0; i < index.getNumImages(); i++) {
+                assertEquals(index.getNumUniformTiles(i), loaded.getNumUniformTiles(i));
+
+                uniformTiles += index.getNumUniformTiles(i);
+
+                for (int y = 0; y < index.getYTiles(i); y++) {
+                    for (int x = 0; x < index.getXTiles(i); x++) {
+                        assertEquals(index.getUniformIndex(i, x, y), loaded.getUniformIndex(i, x, y));
+                    }
+                }
+            }
+
+            assertTrue(uniformTiles > 0);
+            assertTrue(index.getNumUniformTiles(0) < index.getXTiles(0) * index.getYTiles(0));
+            assertEquals(BACKGROUND, index.getUniformIndex(0, index.getXTiles(0) - 1, index.getYTiles(0) - 1));
+
+            BufferedImage expected = reader.read(0);
+
+            reader.setTileIndex(loaded);
+
+            BufferedImage actual = reader.read(0);
+
+            assertArrayEquals(((DataBufferByte) expected.getRaster().getDataBuffer()).getData(), ((DataBufferByte) actual.getRaster().getDataBuffer()).getData());
+
+            // a uniform tile is served from the index
+            for (int y = 0; y < index.getYTiles(0); y++) {
+                for (int x = 0; x < index.getXTiles(0); x++) {
+                    if (index.getUniformIndex(0, x, y) >= 0) {
+                        byte[] tile = ((DataBufferByte) reader.readTile(0, x, y).getRaster().getDataBuffer()).getData();
+
+                        assertEquals(index.getUniformIndex(0, x, y), tile[tile.length - 1] & 0xFF);
+
+                        tile[0]++;
+
+                        // the shared tile is not changed
+                        assertEquals(index.getUniformIndex(0, x, y), index.getUniformTile(0, x, y)[0] & 0xFF);
+                    }
+                }
+            }
+        }
+
+        File encryptedFile = writeSparseImage(true);
+
+        try (ImageInputStream is = new FileImageInputStream(encryptedFile)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            File sidecar = File.createTempFile("World", ".ozfi");
+
+            try {
+                OzfTileIndex.build(reader, Runnable::run).save(sidecar);
+
+                reader.setTileIndex(OzfTileIndex.load(sidecar));
+            } finally {
+                Files.delete(sidecar.toPath());
+            }
+
+            OzfTileIndex ozf2Index;
+
+            try (ImageInputStream ozf2 = new FileImageInputStream(ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf2"))) {
+                OzfImageReader ozf2Reader = new OzfImageReader(null);
+
+                ozf2Reader.setInput(ozf2);
+
+                ozf2Index = OzfTileIndex.build(ozf2Reader, Runnable::run);
+            }
+
+            assertThrows(IllegalArgumentException.class, () -> reader.setTileIndex(ozf2Index));
+        }
+
+        assertThrows(IOException.class, () -> OzfTileIndex.read(new ByteArrayInputStream(new byte[16])));
+
+        Files.delete(file.toPath());
+        Files.delete(encryptedFile.toPath());
+    }
+
+    @Test
+    public void testOtherFile() throws IOException {
+        File file = writeSparseImage(false);
+        // the same tile grids, other tiles
+        File other = writeSparseImage(false, 43);
+
+        try (ImageInputStream is = new FileImageInputStream(file);
+             ImageInputStream otherIs = new FileImageInputStream(other)) {
+            OzfImageReader reader = new OzfImageReader(null);
+            OzfImageReader otherReader = new OzfImageReader(null);
+
+            reader.setInput(is);
+            otherReader.setInput(otherIs);
+
+            OzfTileIndex index = OzfTileIndex.build(reader, Runnable::run);
+
+            for (int i = 0; i < index.getNumImages(); i++) {
+                assertEquals(index.getXTiles(i), otherReader.getXTiles(i));
+                assertEquals(index.getYTiles(i), otherReader.getYTiles(i));
+            }
+
+            ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+
+            index.write(sidecar);
+
+            OzfTileIndex loaded = OzfTileIndex.read(new ByteArrayInputStream(sidecar.toByteArray()));
+
+            reader.setTileIndex(loaded);
+
+            assertThrows(IllegalArgumentException.class, () -> otherReader.setTileIndex(loaded));
+        } finally {
+            Files.delete(file.toPath());
+            Files.delete(other.toPath());
+        }
+    }
+
+    @Test
+    public void testExportSkipsEmptyTiles() throws IOException {
+        File file = writeSparseImage(false);
+
+        OzfTileIndex index;
+
+        try (ImageInputStream is = new FileImageInputStream(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            index = OzfTileIndex.build(reader, Runnable::run);
+        }
+
+        File output = File.createTempFile("World", ".zip");
+
+        try {
+            OzfTileExporter exporter = new OzfTileExporter(file);
+
+            OzfTileExporter.Statistics all = exporter.export(output);
+
+            exporter.setTileIndex(index);
+            exporter.setEmptyIndex(BACKGROUND);
+
+            OzfTileExporter.Statistics skipped = exporter.export(output);
+
+            assertEquals(0, all.getTilesSkipped());
+            assertTrue(skipped.getTilesSkipped() > 0);
+            assertTrue(skipped.getTilesWritten() > 0);
+            assertEquals(all.getTiles(), skipped.getTilesWritten() + skipped.getTilesSkipped());
+        } finally {
+            Files.delete(output.toPath());
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * @return a file filled with the background except for a noisy patch at the top left corner
+     */
+    private static File writeSparseImage(boolean encrypted) throws IOException {
+        return writeSparseImage(encrypted, 42);
+    }
+
+    private static File writeSparseImage(boolean encrypted, long seed) throws IOException {
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+
+        for (int i = 0; i < 256; i++) {
+            r[i] = (byte) i;
+            g[i] = (byte) (255 - i);
+            b[i] = (byte) (i * 7);
+        }
+
+        BufferedImage image = new BufferedImage(1100, 700, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, 256, r, g, b));
+
+        Random random = new Random(seed);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.getRaster().setSample(x, y, 0, x < 200 && y < 150 ? random.nextInt(256) : BACKGROUND);
+            }
+        }
+
+        File file = Files.createTempFile("imageio-ozf", encrypted ? ".ozf3" : ".ozf2").toFile();
+
+        ImageWriter writer = new OzfImageWriter(null);
+
+        OzfImageWriteParam param = (OzfImageWriteParam) writer.getDefaultWriteParam();
+
+        param.setEncrypted(encrypted);
+
+        try (ImageOutputStream os = new FileImageOutputStream(file)) {
+            writer.setOutput(os);
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares a shared {@link OzfImageReader} (synchronized) against {@link OzfTileSource} when tens of thousands of tile
+ * requests are in flight at once.
+ * <p>
+ * {@code OzfTileSourceBenchmark [file] [requests...]}. Requests run on virtual threads when the JDK has them, on a
+ * pool of 256 platform threads otherwise. The tile cache is off, so every request reads and inflates a tile.
+ */
+public class OzfTileSourceBenchmark {
+
+    @FunctionalInterface
+    private interface TileReader {
+        byte[] read(int x, int y) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File file = args.length > 0 ? new File(args[0]) : ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3");
+
+        int[] requests = {1_000, 10_000, 50_000};
+
+        if (args.length > 1) {
+            requests = new int[args.length - 1];
+
+            for (int i = 1; i < args.length; i++) {
+                requests[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        ExecutorService executor = newExecutor();
+
+        try (ImageInputStream is = new FileImageInputStream(file);
+             OzfTileSource tileSource = new OzfTileSource(file)) {
+            OzfImageReader reader = new OzfImageReader(null);
+
+            reader.setInput(is);
+
+            int xTiles = tileSource.getXTiles(0);
+            int yTiles = tileSource.getYTiles(0);
+
+            TileReader sharedReader = (x, y) -> {
+                synchronized (reader) {
+                    return ((java.awt.image.DataBufferByte) reader.readTile(0, x, y).getRaster().getDataBuffer()).getData();
+                }
+            };
+
+            TileReader source = (x, y) -> tileSource.readTile(0, x, y);
+
+            // warm up
+            run(executor, sharedReader, xTiles, yTiles, 5_000);
+            run(executor, source, xTiles, yTiles, 5_000);
+
+            for (int n : requests) {
+                report("shared reader", n, run(executor, sharedReader, xTiles, yTiles, n));
+                report("tile source", n, run(executor, source, xTiles, yTiles, n));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long run(ExecutorService executor, TileReader tileReader, int xTiles, int yTiles, int requests) throws Exception {
+        List<Future<byte[]>> futures = new ArrayList<>(requests);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < requests; i++) {
+            futures.add(executor.submit(() -> tileReader.read(ThreadLocalRandom.current().nextInt(xTiles), ThreadLocalRandom.current().nextInt(yTiles))));
+        }
+
+        for (Future<byte[]> future : futures) {
+            future.get();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int requests, long nanos) {
+        System.out.println(String.format(Locale.ROOT, "%-14s %6d requests %8.1f ms %10.0f tiles/s", name, requests, nanos / 1e6, requests * 1e9 / nanos));
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("no virtual threads, using 256 platform threads");
+
+            return Executors.newFixedThreadPool(256);
+        }
+    }
+}
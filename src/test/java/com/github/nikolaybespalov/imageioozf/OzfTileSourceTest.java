@@ -0,0 +1,97 @@
+package com.github.nikolaybespalov.imageioozf;
+
+import com.github.davidcarboni.ResourceUtils;
+import org.junit.Test;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OzfTileSourceTest {
+
+    @Test
+    public void testReadTile() throws IOException, InterruptedException, ExecutionException {
+        for (String name : new String[]{"World.ozf2", "World.ozf3"}) {
+            File file = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/" + name);
+
+            Map<Point, byte[]> expected = new ConcurrentHashMap<>();
+
+            int images;
+
+            try (ImageInputStream is = new FileImageInputStream(file)) {
+                OzfImageReader reader = new OzfImageReader(null);
+
+                reader.setInput(is);
+                reader.readTiles(0, Runnable::run, (x, y, tile) -> expected.put(new Point(x, y), tile));
+
+                images = reader.getNumImages(false);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+
+            try (OzfTileSource tileSource = new OzfTileSource(file, new OzfTileCache(1 << 20))) {
+                assertEquals(images, tileSource.getNumImages());
+                assertEquals(expected.size(), tileSource.getXTiles(0) * tileSource.getYTiles(0));
+
+                List<Future<?>> futures = new ArrayList<>();
+
+                // every tile is read several times at once, both from the file and from the cache
+                for (int i = 0; i < 4; i++) {
+                    for (Point p : expected.keySet()) {
+                        futures.add(executor.submit(() -> {
+                            assertArrayEquals(expected.get(p), tileSource.readTile(0, p.x, p.y));
+
+                            return null;
+                        }));
+                    }
+                }
+
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+
+                assertThrows(IllegalArgumentException.class, () -> tileSource.readTile(0, tileSource.getXTiles(0), 0));
+                assertThrows(IndexOutOfBoundsException.class, () -> tileSource.readTile(images, 0, 0));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testInterrupt() throws IOException {
+        File file = ResourceUtils.getFile("/com/github/nikolaybespalov/imageioozf/test-data/World.ozf3");
+
+        OzfTileSource tileSource = new OzfTileSource(file);
+
+        byte[] tile = tileSource.readTile(1, 0, 0);
+
+        Thread.currentThread().interrupt();
+
+        try {
+            assertThrows(InterruptedIOException.class, () -> tileSource.readTile(1, 0, 0));
+        } finally {
+            Thread.interrupted();
+        }
+
+        // the channel closed by the interrupt is reopened
+        assertArrayEquals(tile, tileSource.readTile(1, 0, 0));
+
+        tileSource.close();
+
+        assertThrows(IOException.class, () -> tileSource.readTile(1, 0, 0));
+    }
+}